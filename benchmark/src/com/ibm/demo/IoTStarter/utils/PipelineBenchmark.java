@@ -0,0 +1,366 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro benchmarks of message construction, topic construction and command steering, giving a
+ * baseline to judge serialization and dispatch changes against. Each operation is warmed up,
+ * then run for a number of timed iterations, reporting its throughput, the bytes allocated
+ * per operation and the size of the payload it produces.
+ *
+ * The benchmark lives outside of the source folder of the app, so that it is not part of the
+ * APK. It needs android.util.Log, e.g. run it on a JVM against a mockable android.jar whose
+ * methods return defaults, with
+ * java -cp classes:benchmark:android.jar:json.jar com.ibm.demo.IoTStarter.utils.PipelineBenchmark [iteration millis]
+ * Allocation is measured with the per thread allocation counter of the JVM, and reported as -1
+ * where it is not available, such as on a device.
+ */
+public class PipelineBenchmark {
+
+    // operations run in batches between two reads of the clock
+    private final static int BATCH = 256;
+
+    private final long iterationMillis;
+    private final int warmupIterations;
+    private final int iterations;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Operation> operations = new ArrayList<Operation>();
+    private final AllocationCounter allocations = new AllocationCounter();
+    private long sink;
+
+    /**
+     * An operation to benchmark.
+     */
+    public interface Operation {
+        /**
+         * @return The size of the payload produced or consumed, in bytes.
+         */
+        int run() throws Exception;
+    }
+
+    /**
+     * @param iterationMillis  The duration of each iteration, in milliseconds.
+     * @param warmupIterations The number of iterations run before measuring.
+     * @param iterations       The number of measured iterations.
+     */
+    public PipelineBenchmark(long iterationMillis, int warmupIterations, int iterations) {
+        this.iterationMillis = iterationMillis;
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param iterationMillis The duration of each iteration, in milliseconds.
+     * @return A benchmark of the message factory, topic factory and command steering operations.
+     */
+    public static PipelineBenchmark create(long iterationMillis) {
+        PipelineBenchmark benchmark = new PipelineBenchmark(iterationMillis, 3, 5);
+        addMessageOperations(benchmark);
+        addTopicOperations(benchmark);
+        addSteeringOperations(benchmark);
+        return benchmark;
+    }
+
+    public void add(String name, Operation operation) {
+        names.add(name);
+        operations.add(operation);
+    }
+
+    /**
+     * Run all operations in the order they were added.
+     *
+     * @return The result of each operation.
+     * @throws Exception If an operation failed.
+     */
+    public List<Result> run() throws Exception {
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < operations.size(); i++) {
+            results.add(run(names.get(i), operations.get(i)));
+        }
+        return results;
+    }
+
+    private Result run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation);
+        }
+        long count = 0;
+        long nanos = 0;
+        long allocated = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = allocations.get();
+            long start = System.nanoTime();
+            long ops = iterate(operation);
+            long elapsed = System.nanoTime() - start;
+            allocated += allocations.get() - allocatedBefore;
+            double rate = ops * 1e9 / elapsed;
+            min = Math.min(min, rate);
+            max = Math.max(max, rate);
+            count += ops;
+            nanos += elapsed;
+        }
+        int payloadBytes = operation.run();
+        double allocatedPerOp = allocations.isAvailable() ? (double) allocated / count : -1;
+        return new Result(name, count * 1e9 / nanos, min, max, allocatedPerOp, payloadBytes);
+    }
+
+    private long iterate(Operation operation) throws Exception {
+        long end = System.nanoTime() + iterationMillis * 1000000L;
+        long ops = 0;
+        long bytes = 0;
+        do {
+            for (int i = 0; i < BATCH; i++) {
+                bytes += operation.run();
+            }
+            ops += BATCH;
+        } while (System.nanoTime() < end);
+        // keeps the results alive so that the operations are not optimized away
+        sink += bytes;
+        return ops;
+    }
+
+    private static void addMessageOperations(PipelineBenchmark benchmark) {
+        final float[] G = {0.12f, -0.35f, 9.79f};
+        final float[] O = {1.571f, -0.052f, 0.031f};
+        benchmark.add("getAccelMessage", new Operation() {
+            @Override
+            public int run() {
+                return MessageFactory.getAccelMessage(G, O, 1.571f, -79.3832, 43.6532).length();
+            }
+        });
+        benchmark.add("writeAccelMessage cbor", new Operation() {
+            @Override
+            public int run() {
+                return MessageFactory.writeAccelMessage(PayloadCodecs.CBOR.getWriter(), G, O, 1.571f, -79.3832, 43.6532).getLength();
+            }
+        });
+        benchmark.add("getTouchMessage", new Operation() {
+            @Override
+            public int run() {
+                return MessageFactory.getTouchMessage(0.25, 0.75, 0.01, -0.02, false).length();
+            }
+        });
+        benchmark.add("getTextMessage", new Operation() {
+            @Override
+            public int run() {
+                return MessageFactory.getTextMessage("Hello from the device").length();
+            }
+        });
+    }
+
+    private static void addTopicOperations(PipelineBenchmark benchmark) {
+        benchmark.add("getEventTopic", new Operation() {
+            @Override
+            public int run() {
+                return TopicFactory.getEventTopic(Constants.ACCEL_EVENT).length();
+            }
+        });
+        benchmark.add("getCommandTopic", new Operation() {
+            @Override
+            public int run() {
+                return TopicFactory.getCommandTopic(Constants.COLOR_EVENT).length();
+            }
+        });
+    }
+
+    /**
+     * Steering is benchmarked through MessageConductor.steerMessage(), the dispatcher and the
+     * command tasks, which read the fields of the handler from the payload, up to handlers that
+     * do nothing, since the handlers of the application need its context. When the lanes are
+     * full the command runs on the calling thread, so that the throughput is the sustained one.
+     * Only the allocations of the calling thread are counted, not those of the lanes.
+     */
+    private static void addSteeringOperations(PipelineBenchmark benchmark) {
+        MessageConductor conductor = new MessageConductor(new CommandDispatcher(Constants.DISPATCH_LANES,
+                Constants.DISPATCH_QUEUE_CAPACITY, Constants.OverflowPolicy.CALLER_RUNS));
+        CommandFields color = new CommandFields(4);
+        color.addNumber("r");
+        color.addNumber("g");
+        color.addNumber("b");
+        color.addNumber("alpha");
+        CommandFields text = new CommandFields(1);
+        text.addText("text");
+        CommandFields alert = new CommandFields(1);
+        alert.addText("text");
+        // the light command has no fields
+        conductor.registerHandler(Constants.COLOR_EVENT, new NoopHandler(color));
+        conductor.registerHandler(Constants.LIGHT_EVENT, new NoopHandler(null));
+        conductor.registerHandler(Constants.TEXT_EVENT, new NoopHandler(text));
+        conductor.registerHandler(Constants.ALERT_EVENT, new NoopHandler(alert));
+
+        addSteering(benchmark, conductor, Constants.COLOR_EVENT, "{\"d\":{\"r\":150,\"g\":50,\"b\":10,\"alpha\":0.5}}");
+        addSteering(benchmark, conductor, Constants.LIGHT_EVENT, "{\"d\":{\"light\":\"toggle\"}}");
+        addSteering(benchmark, conductor, Constants.TEXT_EVENT, "{\"d\":{\"text\":\"Hello from the cloud\"}}");
+        addSteering(benchmark, conductor, Constants.ALERT_EVENT, "{\"d\":{\"text\":\"Battery low\"}}");
+    }
+
+    private static void addSteering(PipelineBenchmark benchmark, final MessageConductor conductor,
+                                    String command, String message) {
+        final String topic = TopicFactory.getCommandTopic(command);
+        final byte[] payload = message.getBytes();
+        benchmark.add("steerMessage " + command, new Operation() {
+            @Override
+            public int run() throws JSONException {
+                conductor.steerMessage(payload, topic);
+                return payload.length;
+            }
+        });
+    }
+
+    /**
+     * A handler that reads the fields of its command and does nothing with them.
+     */
+    private static class NoopHandler implements CommandHandler {
+        private final CommandFields fields;
+
+        NoopHandler(CommandFields fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public CommandFields getFields() {
+            return fields;
+        }
+
+        @Override
+        public void handleCommand(CommandFields d, String topic) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long iterationMillis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        PipelineBenchmark benchmark = create(iterationMillis);
+        System.out.println(String.format("%-28s %14s %14s %14s %10s %8s",
+                "operation", "ops/s", "min ops/s", "max ops/s", "B/op", "payload"));
+        for (Result result : benchmark.run()) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * The throughput, allocation and payload size of an operation.
+     */
+    public static class Result {
+        private final String name;
+        private final double throughput;
+        private final double minThroughput;
+        private final double maxThroughput;
+        private final double allocatedPerOp;
+        private final int payloadBytes;
+
+        Result(String name, double throughput, double minThroughput, double maxThroughput,
+               double allocatedPerOp, int payloadBytes) {
+            this.name = name;
+            this.throughput = throughput;
+            this.minThroughput = minThroughput;
+            this.maxThroughput = maxThroughput;
+            this.allocatedPerOp = allocatedPerOp;
+            this.payloadBytes = payloadBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The operations per second over all measured iterations.
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * @return The operations per second of the slowest iteration.
+         */
+        public double getMinThroughput() {
+            return minThroughput;
+        }
+
+        /**
+         * @return The operations per second of the fastest iteration.
+         */
+        public double getMaxThroughput() {
+            return maxThroughput;
+        }
+
+        /**
+         * @return The bytes allocated per operation, or -1 if allocation could not be measured.
+         */
+        public double getAllocatedPerOp() {
+            return allocatedPerOp;
+        }
+
+        /**
+         * @return The size of the payload of the operation, in bytes.
+         */
+        public int getPayloadBytes() {
+            return payloadBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s %14.0f %14.0f %14.0f %10.1f %8d",
+                    name, throughput, minThroughput, maxThroughput, allocatedPerOp, payloadBytes);
+        }
+    }
+
+    /**
+     * Bytes allocated by the calling thread, read through reflection from the HotSpot
+     * ThreadMXBean since neither it nor java.lang.management exist on Android.
+     */
+    private static class AllocationCounter {
+        private Object bean;
+        private Method allocatedBytes;
+
+        AllocationCounter() {
+            try {
+                Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+                Object threadBean = factory.getMethod("getThreadMXBean").invoke(null);
+                Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+                if (beanClass.isInstance(threadBean)) {
+                    beanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadBean, true);
+                    allocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+                    bean = threadBean;
+                }
+            } catch (Exception e) {
+                allocatedBytes = null;
+            }
+        }
+
+        boolean isAvailable() {
+            return allocatedBytes != null;
+        }
+
+        long get() {
+            if (allocatedBytes == null) {
+                return 0;
+            }
+            try {
+                return (Long) allocatedBytes.invoke(bean, Thread.currentThread().getId());
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -26,8 +26,14 @@ import android.util.Log;
 
 import com.ibm.demo.IoTStarter.utils.Constants;
 import com.ibm.demo.IoTStarter.utils.DeviceSensor;
+import com.ibm.demo.IoTStarter.utils.FloatSnapshot;
 import com.ibm.demo.IoTStarter.utils.IoTProfile;
+import com.ibm.demo.IoTStarter.utils.MessageLog;
+import com.ibm.demo.IoTStarter.utils.MetricsRegistry;
+import com.ibm.demo.IoTStarter.utils.Tracer;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -45,18 +51,16 @@ public class IoTStarterApplication extends Application {
     private String deviceId;
     private String authToken;
     private Constants.ConnectionType connectionType;
+    private Map<String, Integer> sensors = new LinkedHashMap<String, Integer>();
 
     private SharedPreferences settings;
 
     // Application state variables
     private boolean connected = false;
-    private int publishCount = 0;
-    private int receiveCount = 0;
-    private int unreadCount = 0;
 
     private int color = Color.WHITE;
     private boolean isCameraOn = false;
-    private float[] accelData;
+    private final FloatSnapshot accelData = new FloatSnapshot(3);
     private boolean accelEnabled = true;
 
     private DeviceSensor deviceSensor;
@@ -64,7 +68,7 @@ public class IoTStarterApplication extends Application {
     private Camera camera;
 
     // Message log for log activity
-    private ArrayList<String> messageLog = new ArrayList<String>();
+    private final MessageLog messageLog = new MessageLog(Constants.MESSAGE_LOG_CAPACITY);
 
     private List<IoTProfile> profiles = new ArrayList<IoTProfile>();
     private ArrayList<String> profileNames = new ArrayList<String>();
@@ -140,6 +144,7 @@ public class IoTStarterApplication extends Application {
                             this.setOrganization(newProfile.getOrganization());
                             this.setDeviceId(newProfile.getDeviceID());
                             this.setAuthToken(newProfile.getAuthorizationToken());
+                            this.setSensors(newProfile.getSensors());
                         }
                     }
                 } catch (Exception e) {
@@ -168,6 +173,34 @@ public class IoTStarterApplication extends Application {
         }
     }
 
+    /**
+     * Starts or stops tracing the message pipelines. When tracing stops, the recorded spans
+     * are written to TRACE_FILE in the files directory of the application.
+     */
+    public void toggleTracing() {
+        final Tracer tracer = Tracer.getInstance();
+        if (!tracer.isEnabled()) {
+            Log.i(TAG, ".toggleTracing() - tracing started");
+            tracer.clear();
+            tracer.setEnabled(true);
+            return;
+        }
+        tracer.setEnabled(false);
+        final File file = new File(getFilesDir(), Constants.TRACE_FILE);
+        // writing the events takes a while, keep it off the main thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tracer.dump(file);
+                    Log.i(TAG, ".toggleTracing() - wrote " + tracer.getCount() + " events to " + file.getPath());
+                } catch (IOException e) {
+                    Log.e(TAG, ".toggleTracing() - IOException caught while writing " + file.getPath(), e);
+                }
+            }
+        }, "TraceDump").start();
+    }
+
     /**
      * Turn flashlight on or off when a light command message is received.
      */
@@ -278,6 +311,17 @@ public class IoTStarterApplication extends Application {
         this.authToken = authToken;
     }
 
+    /**
+     * @return The sampling period in microseconds of each enabled sensor source, by name.
+     */
+    public Map<String, Integer> getSensors() {
+        return sensors;
+    }
+
+    public void setSensors(Map<String, Integer> sensors) {
+        this.sensors = new LinkedHashMap<String, Integer>(sensors);
+    }
+
     public void setConnectionType(Constants.ConnectionType type) {
         this.connectionType = type;
     }
@@ -294,28 +338,11 @@ public class IoTStarterApplication extends Application {
         this.connected = connected;
     }
 
-    public int getPublishCount() {
-        return publishCount;
-    }
-
-    public void setPublishCount(int publishCount) {
-        this.publishCount = publishCount;
-    }
-
-    public int getReceiveCount() {
-        return receiveCount;
-    }
-
-    public void setReceiveCount(int receiveCount) {
-        this.receiveCount = receiveCount;
-    }
-
-    public int getUnreadCount() {
-        return unreadCount;
-    }
-
-    public void setUnreadCount(int unreadCount) {
-        this.unreadCount = unreadCount;
+    /**
+     * @return The registry of the publish, receive and unread counters and of the traffic rates.
+     */
+    public MetricsRegistry getMetrics() {
+        return MetricsRegistry.getInstance();
     }
 
     public int getColor() {
@@ -326,13 +353,21 @@ public class IoTStarterApplication extends Application {
         this.color = color;
     }
 
-    public float[] getAccelData() { return accelData; };
+    /**
+     * @param accelData Array to copy the latest accelerometer x, y, z values into.
+     */
+    public void getAccelData(float[] accelData) {
+        this.accelData.read(accelData);
+    }
 
+    /**
+     * @param accelData The latest accelerometer x, y, z values, which are copied.
+     */
     public void setAccelData(float[] accelData) {
-        this.accelData = accelData.clone();
+        this.accelData.write(accelData);
     }
 
-    public ArrayList<String> getMessageLog() {
+    public MessageLog getMessageLog() {
         return messageLog;
     }
 
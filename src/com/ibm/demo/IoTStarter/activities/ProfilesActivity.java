@@ -146,6 +146,7 @@ public class ProfilesActivity extends Activity {
                 app.setOrganization(profile.getOrganization());
                 app.setDeviceId(profile.getDeviceID());
                 app.setAuthToken(profile.getAuthorizationToken());
+                app.setSensors(profile.getSensors());
                 break;
             }
         }
@@ -167,7 +168,8 @@ public class ProfilesActivity extends Activity {
                 .setPositiveButton(getResources().getString(R.string.save_dialog_ok), new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int whichButton) {
                         Editable value = input.getText();
-                        IoTProfile profile = new IoTProfile(value.toString(), app.getOrganization(), app.getDeviceId(), app.getAuthToken());
+                        IoTProfile profile = new IoTProfile(value.toString(), app.getOrganization(), app.getDeviceId(), app.getAuthToken(),
+                                app.getSensors());
 
                         // Check if profile name already exists.
                         if (app.getProfileNames().contains(profile.getProfileName())) {
@@ -243,12 +245,15 @@ public class ProfilesActivity extends Activity {
             case R.id.action_accel:
                 app.toggleAccel();
                 return true;
+            case R.id.action_trace:
+                app.toggleTracing();
+                return true;
             case R.id.action_clear_profiles:
                 app.clearProfiles();
                 listAdapter.notifyDataSetInvalidated();
                 return true;
             case R.id.clear:
-                app.setUnreadCount(0);
+                app.getMetrics().getUnread().reset();
                 app.getMessageLog().clear();
                 return true;
             default:
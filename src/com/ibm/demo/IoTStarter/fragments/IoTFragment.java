@@ -30,8 +30,14 @@ import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
 import com.ibm.demo.IoTStarter.activities.MainActivity;
 import com.ibm.demo.IoTStarter.utils.Constants;
+import com.ibm.demo.IoTStarter.utils.LatencyHistogram;
+import com.ibm.demo.IoTStarter.utils.LatencyTracker;
 import com.ibm.demo.IoTStarter.utils.MessageFactory;
+import com.ibm.demo.IoTStarter.utils.MessageWriter;
+import com.ibm.demo.IoTStarter.utils.MetricsRegistry;
 import com.ibm.demo.IoTStarter.utils.MqttHandler;
+import com.ibm.demo.IoTStarter.utils.PayloadCodec;
+import com.ibm.demo.IoTStarter.utils.PayloadCodecs;
 import com.ibm.demo.IoTStarter.utils.TopicFactory;
 
 /**
@@ -41,6 +47,7 @@ import com.ibm.demo.IoTStarter.utils.TopicFactory;
  */
 public class IoTFragment extends IoTStarterFragment {
     private final static String TAG = IoTFragment.class.getName();
+    private final float[] accelData = new float[3];
 
     /**************************************************************************
      * Fragment functions for establishing the fragment
@@ -129,13 +136,15 @@ public class IoTFragment extends IoTStarterFragment {
             ((TextView) getActivity().findViewById(R.id.deviceIDIoT)).setText("-");
         }
 
+        MetricsRegistry.Snapshot metrics = app.getMetrics().snapshot();
+
         // Update publish count view.
-        processPublishIntent();
+        processPublishIntent(metrics);
 
         // Update receive count view.
-        processReceiveIntent();
+        processReceiveIntent(metrics);
 
-        int unreadCount = app.getUnreadCount();
+        int unreadCount = (int) metrics.getUnreadCount();
         ((MainActivity) getActivity()).updateBadge(getActivity().getActionBar().getTabAt(2), unreadCount);
     }
 
@@ -158,9 +167,11 @@ public class IoTFragment extends IoTStarterFragment {
                     .setPositiveButton(getResources().getString(R.string.ok), new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int whichButton) {
                             Editable value = input.getText();
-                            String messageData = MessageFactory.getTextMessage(value.toString());
+                            PayloadCodec codec = PayloadCodecs.getEventCodec(Constants.TEXT_EVENT);
+                            MessageWriter writer = MessageFactory.writeTextMessage(codec.getWriter(), value.toString());
                             MqttHandler mqtt = MqttHandler.getInstance(context);
-                            mqtt.publish(TopicFactory.getEventTopic(Constants.TEXT_EVENT), messageData, false, 0);
+                            mqtt.publish(TopicFactory.getEventTopic(Constants.TEXT_EVENT, codec),
+                                    writer.getBuffer(), 0, writer.getLength(), false, 0);
                         }
                     }).setNegativeButton(getResources().getString(R.string.cancel), new DialogInterface.OnClickListener() {
                 public void onClick(DialogInterface dialog, int whichButton) {
@@ -189,16 +200,13 @@ public class IoTFragment extends IoTStarterFragment {
     private void processIntent(Intent intent) {
         Log.d(TAG, ".processIntent() entered");
 
-        // No matter the intent, update log button based on app.unreadCount.
+        // No matter the intent, update log button based on app.unreadCount. This also updates
+        // the published and received views from a single snapshot of the metrics.
         updateViewStrings();
 
         String data = intent.getStringExtra(Constants.INTENT_DATA);
         assert data != null;
-        if (data.equals(Constants.INTENT_DATA_PUBLISHED)) {
-            processPublishIntent();
-        } else if (data.equals(Constants.INTENT_DATA_RECEIVED)) {
-            processReceiveIntent();
-        } else if (data.equals(Constants.ACCEL_EVENT)) {
+        if (data.equals(Constants.ACCEL_EVENT)) {
             processAccelEvent();
         } else if (data.equals(Constants.COLOR_EVENT)) {
             Log.d(TAG, "Updating background color");
@@ -217,23 +225,43 @@ public class IoTFragment extends IoTStarterFragment {
 
     /**
      * Intent data contained INTENT_DATA_PUBLISH
-     * Update the published messages view based on app.getPublishCount()
+     * Update the published messages view based on the publish count and rates of the metrics
+     * @param metrics The current metrics of the application.
      */
-    private void processPublishIntent() {
+    private void processPublishIntent(MetricsRegistry.Snapshot metrics) {
         Log.v(TAG, ".processPublishIntent() entered");
-        String publishedString = this.getString(R.string.messages_published);
-        publishedString = publishedString.replace("0",Integer.toString(app.getPublishCount()));
+        String publishedString = this.getString(R.string.messages_published_rate, metrics.getPublishCount(),
+                metrics.getMessageRate(Constants.Direction.OUTBOUND),
+                Math.round(metrics.getByteRate(Constants.Direction.OUTBOUND)));
         ((TextView) getActivity().findViewById(R.id.messagesPublishedView)).setText(publishedString);
+        updateLatencyView();
+    }
+
+    /**
+     * Update the publish latency view based on the latencies of all acknowledged messages.
+     */
+    private void updateLatencyView() {
+        LatencyHistogram latency = LatencyTracker.getInstance().getOverall();
+        String latencyString;
+        if (latency.getCount() == 0) {
+            latencyString = this.getString(R.string.publish_latency);
+        } else {
+            latencyString = this.getString(R.string.publish_latency_value,
+                    latency.getPercentile(50) / 1000, latency.getPercentile(99) / 1000, latency.getMax() / 1000);
+        }
+        ((TextView) getActivity().findViewById(R.id.publishLatencyView)).setText(latencyString);
     }
 
     /**
      * Intent data contained INTENT_DATA_RECEIVE
-     * Update the received messages view based on app.getReceiveCount();
+     * Update the received messages view based on the receive count and rates of the metrics
+     * @param metrics The current metrics of the application.
      */
-    private void processReceiveIntent() {
+    private void processReceiveIntent(MetricsRegistry.Snapshot metrics) {
         Log.v(TAG, ".processReceiveIntent() entered");
-        String receivedString = this.getString(R.string.messages_received);
-        receivedString = receivedString.replace("0",Integer.toString(app.getReceiveCount()));
+        String receivedString = this.getString(R.string.messages_received_rate, metrics.getReceiveCount(),
+                metrics.getMessageRate(Constants.Direction.INBOUND),
+                Math.round(metrics.getByteRate(Constants.Direction.INBOUND)));
         ((TextView) getActivity().findViewById(R.id.messagesReceivedView)).setText(receivedString);
     }
 
@@ -242,7 +270,7 @@ public class IoTFragment extends IoTStarterFragment {
      */
     private void processAccelEvent() {
         Log.v(TAG, ".processAccelEvent()");
-        float[] accelData = app.getAccelData();
+        app.getAccelData(accelData);
         ((TextView) getActivity().findViewById(R.id.accelX)).setText("x: " + accelData[0]);
         ((TextView) getActivity().findViewById(R.id.accelY)).setText("y: " + accelData[1]);
         ((TextView) getActivity().findViewById(R.id.accelZ)).setText("z: " + accelData[2]);
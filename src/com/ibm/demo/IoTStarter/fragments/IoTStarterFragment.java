@@ -51,7 +51,7 @@ public class IoTStarterFragment extends Fragment {
      */
     protected void updateViewStrings() {
         Log.d(TAG, ".updateViewStrings() entered");
-        int unreadCount = app.getUnreadCount();
+        int unreadCount = (int) app.getMetrics().getUnread().sum();
         ((MainActivity) getActivity()).updateBadge(getActivity().getActionBar().getTabAt(2), unreadCount);
     }
 
@@ -103,6 +103,9 @@ public class IoTStarterFragment extends Fragment {
             case R.id.action_accel:
                 app.toggleAccel();
                 return true;
+            case R.id.action_trace:
+                app.toggleTracing();
+                return true;
             case R.id.action_profiles:
                 openProfiles();
                 return true;
@@ -110,7 +113,7 @@ public class IoTStarterFragment extends Fragment {
                 app.clearProfiles();
                 return true;
             case R.id.clear:
-                app.setUnreadCount(0);
+                app.getMetrics().getUnread().reset();
                 app.getMessageLog().clear();
                 updateViewStrings();
                 return true;
@@ -22,7 +22,6 @@ import android.graphics.Color;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.*;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
@@ -40,7 +39,7 @@ public class LogFragment extends ListFragment {
     protected BroadcastReceiver broadcastReceiver;
 
     protected ListView listView;
-    protected ArrayAdapter<String> listAdapter;
+    protected MessageLogAdapter listAdapter;
 
     /**************************************************************************
      * Fragment functions for establishing the fragment
@@ -71,9 +70,9 @@ public class LogFragment extends ListFragment {
 
         app = (IoTStarterApplication) getActivity().getApplication();
         app.setCurrentRunningActivity(TAG);
-        app.setUnreadCount(0);
+        app.getMetrics().getUnread().reset();
 
-        listAdapter = new ArrayAdapter<String>(this.context, R.layout.list_item, app.getMessageLog());
+        listAdapter = new MessageLogAdapter(this.context, app.getMessageLog());
         listView.setAdapter(listAdapter);
 
         if (broadcastReceiver == null) {
@@ -123,14 +122,14 @@ public class LogFragment extends ListFragment {
     private void processIntent(Intent intent) {
         Log.d(TAG, ".processIntent() entered");
 
-        app.setUnreadCount(0);
+        app.getMetrics().getUnread().reset();
 
         String data = intent.getStringExtra(Constants.INTENT_DATA);
         assert data != null;
         if (data.equals(Constants.TEXT_EVENT)) {
-            listAdapter.notifyDataSetInvalidated();
+            listAdapter.refresh();
         } else if (data.equals(Constants.ALERT_EVENT)) {
-            listAdapter.notifyDataSetInvalidated();
+            listAdapter.refresh();
             String message = intent.getStringExtra(Constants.INTENT_DATA_MESSAGE);
             new AlertDialog.Builder(getActivity())
                     .setTitle(getResources().getString(R.string.alert_dialog_title))
@@ -179,10 +178,13 @@ public class LogFragment extends ListFragment {
             case R.id.action_accel:
                 app.toggleAccel();
                 return true;
+            case R.id.action_trace:
+                app.toggleTracing();
+                return true;
             case R.id.clear:
-                app.setUnreadCount(0);
+                app.getMetrics().getUnread().reset();
                 app.getMessageLog().clear();
-                listAdapter.notifyDataSetInvalidated();
+                listAdapter.refresh();
                 return true;
             case R.id.action_clear_profiles:
                 app.clearProfiles();
@@ -134,7 +134,7 @@ public class LoginFragment extends IoTStarterFragment {
             processConnectIntent();
         }
 
-        int unreadCount = app.getUnreadCount();
+        int unreadCount = (int) app.getMetrics().getUnread().sum();
         ((MainActivity) getActivity()).updateBadge(getActivity().getActionBar().getTabAt(2), unreadCount);
     }
 
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.fragments;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+import com.ibm.demo.IoTStarter.R;
+import com.ibm.demo.IoTStarter.utils.MessageLog;
+
+/**
+ * List adapter over a MessageLog. The adapter keeps its own copy of the messages on the UI
+ * thread, in a ring of the same capacity as the log, so that the list only changes when
+ * refresh() is called and never while it is being laid out. Each refresh copies only the
+ * messages added since the previous one.
+ *
+ * Item ids are the sequence numbers of the messages, so they stay stable as old messages
+ * are overwritten, and rows are recycled from the convert views handed back by the list.
+ */
+public class MessageLogAdapter extends BaseAdapter {
+
+    private final MessageLog log;
+    private final LayoutInflater inflater;
+    private final String[] messages;
+    private final int mask;
+
+    // sequence numbers of the first message shown and of the message after the last one
+    private long first;
+    private long end;
+
+    /**
+     * @param context The context used to inflate the rows.
+     * @param log     The log to show.
+     */
+    public MessageLogAdapter(Context context, MessageLog log) {
+        this.log = log;
+        this.inflater = LayoutInflater.from(context);
+        messages = new String[log.getCapacity()];
+        mask = messages.length - 1;
+        refresh();
+    }
+
+    /**
+     * Copy the messages added to the log since the last refresh and notify the list if
+     * anything changed. Called on the UI thread only.
+     *
+     * @return true if the list changed.
+     */
+    public boolean refresh() {
+        long logFirst;
+        long logEnd;
+        // read both ends under the lock of the log so that a clear or add in between is not missed
+        synchronized (log) {
+            logFirst = log.getFirstSequence();
+            logEnd = log.copyTo(end, messages);
+        }
+        if (logFirst == first && logEnd == end) {
+            return false;
+        }
+        first = logFirst;
+        end = logEnd;
+        notifyDataSetChanged();
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return (int) (end - first);
+    }
+
+    @Override
+    public String getItem(int position) {
+        return messages[(int) (first + position) & mask];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return first + position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null) {
+            view = (TextView) inflater.inflate(R.layout.list_item, parent, false);
+        }
+        view.setText(getItem(position));
+        return view;
+    }
+}
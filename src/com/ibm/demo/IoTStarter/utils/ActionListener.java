@@ -23,6 +23,7 @@ import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.fragments.LoginFragment;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 /**
  * This class implements the IMqttActionListener interface of the MQTT Client.
@@ -37,12 +38,40 @@ public class ActionListener implements IMqttActionListener {
     private IMqttToken token;
     private IoTStarterApplication app;
 
+    // Published message, for tracking its delivery latency and journaling it again if it fails
+    private String topic;
+    private int qos;
+    private long startNanos;
+    private MqttMessage message;
+    private int generation;
+    private int journalSend;
+
     public ActionListener(Context context, Constants.ActionStateStatus action) {
         this.context = context;
         this.action = action;
         app = (IoTStarterApplication) context.getApplicationContext();
     }
 
+    /**
+     * Create a listener for a publish.
+     * @param context The application context.
+     * @param topic The topic the message is published to.
+     * @param message The message, held until it is acknowledged.
+     * @param generation The in-flight generation of MqttHandler the message was handed over in.
+     * @param journalSend The send id of a message from the journal, -1 for one published directly.
+     * @param startNanos The System.nanoTime() at which the message was published, before it
+     *                   waited for the rate limits or in the journal.
+     */
+    public ActionListener(Context context, String topic, MqttMessage message, int generation, int journalSend, long startNanos) {
+        this(context, Constants.ActionStateStatus.PUBLISH);
+        this.topic = topic;
+        this.qos = message.getQos();
+        this.message = message;
+        this.generation = generation;
+        this.journalSend = journalSend;
+        this.startNanos = startNanos;
+    }
+
     /**
      * Determine the type of callback that completed successfully.
      * @param token The MQTT Token for the completed action.
@@ -110,10 +139,22 @@ public class ActionListener implements IMqttActionListener {
         Log.d(TAG, ".handleConnectSuccess() entered");
 
         app.setConnected(true);
+        app.getMetrics().getCounter(Constants.METRIC_CONNECTS).increment();
 
+        MqttHandler mqttHandler = MqttHandler.getInstance(context);
         if (app.getConnectionType() != Constants.ConnectionType.QUICKSTART) {
-            MqttHandler mqttHandler = MqttHandler.getInstance(context);
-            mqttHandler.subscribe(TopicFactory.getCommandTopic("+"), 0);
+            // commands may be sent in any payload format
+            mqttHandler.subscribe(TopicFactory.getCommandTopic("+", "+"), 0);
+        }
+
+        // a BrokerHarness run on another broker neither publishes stored messages nor reports
+        if (!mqttHandler.isServerOverridden()) {
+            // send any messages that were stored while disconnected
+            mqttHandler.drainJournal();
+
+            if (app.getConnectionType() != Constants.ConnectionType.QUICKSTART) {
+                StatsReporter.getInstance(context).start();
+            }
         }
 
         String runningActivity = app.getCurrentRunningActivity();
@@ -136,6 +177,12 @@ public class ActionListener implements IMqttActionListener {
      */
     private void handlePublishSuccess() {
         Log.d(TAG, ".handlePublishSuccess() entered");
+        if (topic != null) {
+            LatencyTracker.getInstance().record(topic, qos, startNanos);
+            // a span from the publish to its acknowledgement
+            Tracer.getInstance().end(Tracer.ACK, startNanos, qos);
+            MqttHandler.getInstance(context).publishComplete(topic, message, generation, journalSend, startNanos, true);
+        }
     }
 
     /**
@@ -145,6 +192,7 @@ public class ActionListener implements IMqttActionListener {
         Log.d(TAG, ".handleDisconnectSuccess() entered");
 
         app.setConnected(false);
+        StatsReporter.getInstance(context).stop();
 
         String runningActivity = app.getCurrentRunningActivity();
         if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
@@ -189,6 +237,9 @@ public class ActionListener implements IMqttActionListener {
     private void handlePublishFailure(Throwable throwable) {
         Log.e(TAG, ".handlePublishFailure() entered");
         Log.e(TAG, ".handlePublishFailure() - Failed with exception", throwable.getCause());
+        if (topic != null) {
+            MqttHandler.getInstance(context).publishComplete(topic, message, generation, journalSend, startNanos, false);
+        }
     }
 
     /**
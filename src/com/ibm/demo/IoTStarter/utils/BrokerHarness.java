@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.util.Log;
+import com.ibm.demo.IoTStarter.IoTStarterApplication;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the connection path of the application against a LocalBroker, without a cloud
+ * account. The MqttHandler is pointed at the local broker and connected through the usual
+ * MqttAndroidClient and ActionListener, then the harness measures:
+ * - the sustained publish throughput at QoS 0, 1 and 2, until the broker received every message,
+ *   keeping no more than the in-flight window of the client outstanding,
+ * - the publish to acknowledgement latency at each QoS, as recorded by the ActionListener,
+ * - the round trip latency of commands published by the broker, through messageArrived() and
+ *   the MessageConductor up to their handler.
+ *
+ * The harness blocks while it runs, so it must not be called on the main thread. The rate
+ * limits are lifted during the run and restored afterwards, and the MqttHandler is left
+ * disconnected. While the local broker is set, the MqttHandler keeps other messages, such as
+ * sensor events, in the journal and does not start the StatsReporter, so that they neither
+ * skew the measurements nor get lost on the local broker.
+ */
+public class BrokerHarness {
+    private final static String TAG = BrokerHarness.class.getName();
+
+    private final static int[] QOS_LEVELS = {0, 1, 2};
+    private final static double UNLIMITED_RATE = 1e6;
+    private final static long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Context context;
+    private final IoTStarterApplication app;
+
+    // Command round trips, recorded by the handler on a dispatcher lane
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    private final AtomicInteger commandsReceived = new AtomicInteger();
+    private volatile long commandSentNanos;
+
+    public BrokerHarness(Context context) {
+        this.context = context;
+        this.app = (IoTStarterApplication) context.getApplicationContext();
+    }
+
+    /**
+     * Run the measurements.
+     *
+     * @param messages   The number of messages published at each QoS.
+     * @param roundTrips The number of command round trips.
+     * @return The results of the run.
+     * @throws IOException          If the local broker could not be started.
+     * @throws TimeoutException     If a step did not complete within the harness timeout.
+     * @throws InterruptedException If the calling thread was interrupted.
+     */
+    public Report run(int messages, int roundTrips) throws IOException, TimeoutException, InterruptedException {
+        Log.d(TAG, ".run() entered");
+        MqttHandler mqttHandler = MqttHandler.getInstance(context);
+        PublishLimiter limiter = mqttHandler.getLimiter();
+        double globalRate = limiter.getGlobalRate();
+        int globalBurst = limiter.getGlobalBurst();
+        double topicRate = limiter.getTopicRate();
+        int topicBurst = limiter.getTopicBurst();
+        LocalBroker broker = new LocalBroker(0);
+        broker.start();
+        try {
+            disconnect(mqttHandler);
+            mqttHandler.setServer(broker.getHost(), String.valueOf(broker.getPort()));
+            mqttHandler.connect();
+            await(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return app.isConnected();
+                }
+            }, "connect");
+
+            limiter.setGlobalRate(UNLIMITED_RATE, (int) UNLIMITED_RATE);
+            limiter.setTopicRate(UNLIMITED_RATE, (int) UNLIMITED_RATE);
+
+            Report report = new Report();
+            for (int qos : QOS_LEVELS) {
+                report.publishes[qos] = measurePublish(mqttHandler, broker, qos, messages);
+                Log.i(TAG, ".run() - " + report.publishes[qos]);
+            }
+            measureRoundTrips(mqttHandler, broker, roundTrips);
+            report.roundTrips.add(this.roundTrips);
+            Log.i(TAG, ".run() - command round trip " + format(report.roundTrips));
+            return report;
+        } finally {
+            limiter.setGlobalRate(globalRate, globalBurst);
+            limiter.setTopicRate(topicRate, topicBurst);
+            disconnect(mqttHandler);
+            mqttHandler.setServer(null, null);
+            broker.stop();
+        }
+    }
+
+    private Publish measurePublish(MqttHandler mqttHandler, final LocalBroker broker, int qos, final int messages)
+            throws TimeoutException, InterruptedException {
+        String topic = TopicFactory.getEventTopic(Constants.HARNESS_EVENT);
+        final LatencyHistogram acks = mqttHandler.getLatencyTracker().getHistogram(topic, qos);
+        acks.reset();
+        final long receivedBefore = broker.getReceivedCount(topic);
+        final long failedBefore = mqttHandler.getFailedCount();
+        float[] G = {0.12f, -0.35f, 9.79f};
+        float[] O = {1.571f, -0.052f, 0.031f};
+
+        final MqttHandler handler = mqttHandler;
+        Condition windowOpen = new Condition() {
+            @Override
+            public boolean isMet() {
+                return handler.getInFlightCount() < Constants.MQTT_MAX_INFLIGHT;
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            // the client fails publishes beyond its in-flight window, so wait for acknowledgements
+            await(windowOpen, "in-flight window at QoS " + qos);
+            MessageWriter writer = MessageFactory.writeAccelMessage(PayloadCodecs.JSON.getWriter(), G, O, O[0], 0, 0);
+            mqttHandler.publish(topic, writer.getBuffer(), 0, writer.getLength(), false, qos);
+        }
+        final String harnessTopic = topic;
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return broker.getReceivedCount(harnessTopic) - receivedBefore >= messages && acks.getCount() >= messages;
+            }
+        }, "publish at QoS " + qos);
+        long elapsed = System.nanoTime() - start;
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        latencies.add(acks);
+        long failures = mqttHandler.getFailedCount() - failedBefore;
+        return new Publish(qos, messages, messages * 1e9 / elapsed, latencies, failures);
+    }
+
+    private void measureRoundTrips(MqttHandler mqttHandler, final LocalBroker broker, int count)
+            throws TimeoutException, InterruptedException {
+        MessageConductor.getInstance(context).registerHandler(Constants.HARNESS_COMMAND, new PingHandler());
+        if (broker.getSubscriptionCount() == 0) {
+            // commands are not subscribed to in QuickStart mode
+            mqttHandler.subscribe(TopicFactory.getCommandTopic("+", "+"), 0);
+        }
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return broker.getSubscriptionCount() > 0;
+            }
+        }, "subscribe");
+
+        String topic = TopicFactory.getCommandTopic(Constants.HARNESS_COMMAND);
+        roundTrips.reset();
+        commandsReceived.set(0);
+        for (int i = 0; i < count; i++) {
+            byte[] payload = MessageFactory.writeTextMessage(JsonWriter.get(), String.valueOf(i)).toByteArray();
+            final int expected = i + 1;
+            commandSentNanos = System.nanoTime();
+            broker.publish(topic, payload);
+            await(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return commandsReceived.get() >= expected;
+                }
+            }, "command round trip");
+        }
+    }
+
+    private void disconnect(MqttHandler mqttHandler) throws TimeoutException, InterruptedException {
+        if (!app.isConnected()) {
+            return;
+        }
+        mqttHandler.disconnect();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return !app.isConnected();
+            }
+        }, "disconnect");
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private void await(Condition condition, String step) throws TimeoutException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.HARNESS_TIMEOUT);
+        while (!condition.isMet()) {
+            if (System.nanoTime() > deadline) {
+                throw new TimeoutException("Timed out waiting for " + step);
+            }
+            LockSupport.parkNanos(POLL_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static String format(LatencyHistogram histogram) {
+        return "p50 " + histogram.getPercentile(50) + "us p99 " + histogram.getPercentile(99)
+                + "us max " + histogram.getMax() + "us";
+    }
+
+    /**
+     * Records the round trip of harness commands, which carry their sequence number as text.
+     */
+    private class PingHandler implements CommandHandler {
+        private final CommandFields fields = new CommandFields(1);
+        private final int textField = fields.addText("text");
+
+        @Override
+        public CommandFields getFields() {
+            return fields;
+        }
+
+        @Override
+        public void handleCommand(CommandFields d, String topic) throws JSONException {
+            roundTrips.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - commandSentNanos));
+            commandsReceived.incrementAndGet();
+            Log.v(TAG, ".handleCommand() - round trip " + d.getString(textField));
+        }
+    }
+
+    /**
+     * The results of a harness run.
+     */
+    public static class Report {
+        private final Publish[] publishes = new Publish[QOS_LEVELS.length];
+        private final LatencyHistogram roundTrips = new LatencyHistogram();
+
+        /**
+         * @param qos The quality of service, 0 to 2.
+         * @return The publish results at the QoS.
+         */
+        public Publish getPublish(int qos) {
+            return publishes[qos];
+        }
+
+        /**
+         * @return The command round trip latencies, in microseconds.
+         */
+        public LatencyHistogram getRoundTrips() {
+            return roundTrips;
+        }
+    }
+
+    /**
+     * The throughput and acknowledgement latency of messages published at a QoS.
+     */
+    public static class Publish {
+        private final int qos;
+        private final int messages;
+        private final double throughput;
+        private final LatencyHistogram latencies;
+        private final long failures;
+
+        Publish(int qos, int messages, double throughput, LatencyHistogram latencies, long failures) {
+            this.qos = qos;
+            this.messages = messages;
+            this.throughput = throughput;
+            this.latencies = latencies;
+            this.failures = failures;
+        }
+
+        public int getQos() {
+            return qos;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return The messages per second, until the broker received and acknowledged all of them.
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * @return The publish to acknowledgement latencies, in microseconds.
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * @return The number of publishes the client failed, which were journaled and published again.
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return "QoS " + qos + ": " + messages + " messages at " + Math.round(throughput) + "/s, ack " + format(latencies)
+                    + ", " + failures + " failed";
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+/**
+ * Pull reader for CBOR (RFC 7049) payloads. Supports definite and indefinite length maps
+ * and arrays, integers, floating point values, text strings and simple values. Text keys
+ * of maps are reported as NAME tokens.
+ */
+public class CborReader implements PayloadReader {
+
+    private final static int MAX_DEPTH = 16;
+    private final static int MAP = 1;
+    private final static int ARRAY = 2;
+
+    private byte[] buffer;
+    private int pos;
+    private int end;
+
+    // container stack: type, items remaining (-1 if indefinite) and whether the next item is a key
+    private final int[] containers = new int[MAX_DEPTH];
+    private final long[] remaining = new long[MAX_DEPTH];
+    private final boolean[] keyNext = new boolean[MAX_DEPTH];
+    private int depth;
+
+    private int stringOffset;
+    private int stringLength;
+    private double number;
+    private boolean bool;
+
+    @Override
+    public void reset(byte[] payload, int offset, int length) {
+        buffer = payload;
+        pos = offset;
+        end = offset + length;
+        depth = 0;
+    }
+
+    @Override
+    public int next() throws JSONException {
+        if (depth > 0 && remaining[depth] == 0) {
+            return pop();
+        }
+        if (pos >= end) {
+            if (depth == 0) {
+                return END_DOCUMENT;
+            }
+            throw new JSONException("Unexpected end of CBOR payload");
+        }
+
+        int initial = buffer[pos++] & 0xff;
+        while ((initial >> 5) == 6) {
+            // semantic tag, the tagged item follows
+            readArgument(initial & 0x1f);
+            if (pos >= end) {
+                throw new JSONException("Unexpected end of CBOR payload");
+            }
+            initial = buffer[pos++] & 0xff;
+        }
+        if (initial == 0xff) {
+            if (depth == 0 || remaining[depth] != -1) {
+                throw new JSONException("Unexpected CBOR break");
+            }
+            return pop();
+        }
+
+        boolean isKey = false;
+        if (depth > 0) {
+            isKey = containers[depth] == MAP && keyNext[depth];
+            if (containers[depth] == MAP) {
+                keyNext[depth] = !keyNext[depth];
+            }
+            if (remaining[depth] > 0) {
+                remaining[depth]--;
+            }
+        }
+
+        int major = initial >> 5;
+        int info = initial & 0x1f;
+        switch (major) {
+            case 0:
+                number = readArgument(info);
+                return isKey ? NAME : NUMBER;
+            case 1:
+                number = -1 - readArgument(info);
+                return isKey ? NAME : NUMBER;
+            case 2:
+            case 3:
+                if (info == 31) {
+                    throw new JSONException("Indefinite length CBOR strings are not supported");
+                }
+                long size = readArgument(info);
+                if (size > end - pos) {
+                    throw new JSONException("Unexpected end of CBOR payload");
+                }
+                stringOffset = pos;
+                stringLength = (int) size;
+                pos += stringLength;
+                return isKey ? NAME : STRING;
+            case 4:
+                push(ARRAY, info == 31 ? -1 : readArgument(info));
+                return BEGIN_ARRAY;
+            case 5:
+                long pairs = info == 31 ? -1 : readArgument(info);
+                push(MAP, pairs < 0 ? -1 : pairs * 2);
+                return BEGIN_OBJECT;
+            default:
+                return readSimple(info);
+        }
+    }
+
+    @Override
+    public void skipValue() throws JSONException {
+        int skipDepth = 0;
+        do {
+            int token = next();
+            if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+                skipDepth++;
+            } else if (token == END_OBJECT || token == END_ARRAY) {
+                skipDepth--;
+            } else if (token == END_DOCUMENT) {
+                return;
+            }
+        } while (skipDepth > 0);
+    }
+
+    @Override
+    public boolean nameEquals(byte[] name) {
+        if (name.length != stringLength) {
+            return false;
+        }
+        for (int i = 0; i < stringLength; i++) {
+            if (buffer[stringOffset + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getString() {
+        try {
+            return new String(buffer, stringOffset, stringLength, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public double getDouble() throws JSONException {
+        if (stringLength >= 0) {
+            return DecimalParser.parse(buffer, stringOffset, stringLength);
+        }
+        return number;
+    }
+
+    @Override
+    public boolean getBoolean() {
+        return bool;
+    }
+
+    private int readSimple(int info) throws JSONException {
+        stringLength = -1;
+        switch (info) {
+            case 20:
+                bool = false;
+                return BOOLEAN;
+            case 21:
+                bool = true;
+                return BOOLEAN;
+            case 22:
+            case 23:
+                return NULL;
+            case 25:
+                number = halfToDouble((int) readArgument(info));
+                return NUMBER;
+            case 26:
+                number = Float.intBitsToFloat((int) readArgument(info));
+                return NUMBER;
+            case 27:
+                number = Double.longBitsToDouble(readArgument(info));
+                return NUMBER;
+            default:
+                throw new JSONException("Unsupported CBOR simple value " + info);
+        }
+    }
+
+    /**
+     * Read the argument of a data item, which is either contained in the additional
+     * information or follows the initial byte.
+     */
+    private long readArgument(int info) throws JSONException {
+        stringLength = -1;
+        if (info < 24) {
+            return info;
+        }
+        int size;
+        switch (info) {
+            case 24:
+                size = 1;
+                break;
+            case 25:
+                size = 2;
+                break;
+            case 26:
+                size = 4;
+                break;
+            case 27:
+                size = 8;
+                break;
+            default:
+                throw new JSONException("Invalid CBOR additional information " + info);
+        }
+        if (end - pos < size) {
+            throw new JSONException("Unexpected end of CBOR payload");
+        }
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer[pos++] & 0xff);
+        }
+        return value;
+    }
+
+    private void push(int type, long count) throws JSONException {
+        if (depth + 1 >= MAX_DEPTH) {
+            throw new JSONException("CBOR nesting too deep");
+        }
+        depth++;
+        containers[depth] = type;
+        remaining[depth] = count;
+        keyNext[depth] = true;
+    }
+
+    private int pop() {
+        int type = containers[depth--];
+        return type == MAP ? END_OBJECT : END_ARRAY;
+    }
+
+    private static double halfToDouble(int half) {
+        int exponent = (half >> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent == 0x1f) {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming CBOR (RFC 7049) writer that encodes directly into a reusable byte buffer.
+ * Objects and arrays are written with indefinite length so that members can be streamed.
+ * Numbers use the smallest encoding that represents them exactly: integral values are
+ * written as integers, and floating point values as half, single or double precision.
+ *
+ * A writer is not thread safe. Use get() to obtain the writer confined to the calling thread.
+ */
+public class CborWriter implements MessageWriter {
+
+    private final static int MAJOR_UNSIGNED = 0;
+    private final static int MAJOR_NEGATIVE = 1 << 5;
+    private final static int MAJOR_TEXT = 3 << 5;
+    private final static int INDEFINITE_ARRAY = 0x9f;
+    private final static int INDEFINITE_MAP = 0xbf;
+    private final static int FALSE = 0xf4;
+    private final static int TRUE = 0xf5;
+    private final static int NULL = 0xf6;
+    private final static int HALF = 0xf9;
+    private final static int SINGLE = 0xfa;
+    private final static int DOUBLE = 0xfb;
+    private final static int BREAK = 0xff;
+
+    private final static ThreadLocal<CborWriter> LOCAL = new ThreadLocal<CborWriter>() {
+        @Override
+        protected CborWriter initialValue() {
+            return new CborWriter();
+        }
+    };
+
+    private byte[] buffer;
+    private int length;
+
+    public CborWriter() {
+        this(256);
+    }
+
+    public CborWriter(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * @return The writer confined to the calling thread, emptied and ready for a new message.
+     */
+    public static CborWriter get() {
+        return LOCAL.get().reset();
+    }
+
+    @Override
+    public CborWriter reset() {
+        length = 0;
+        return this;
+    }
+
+    @Override
+    public CborWriter beginObject() {
+        write(INDEFINITE_MAP);
+        return this;
+    }
+
+    @Override
+    public CborWriter endObject() {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public CborWriter beginArray() {
+        write(INDEFINITE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public CborWriter endArray() {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public CborWriter name(String name) {
+        writeText(name);
+        return this;
+    }
+
+    @Override
+    public CborWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        writeText(value);
+        return this;
+    }
+
+    @Override
+    public CborWriter value(boolean value) {
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public CborWriter value(long value) {
+        if (value < 0) {
+            // negative integers are encoded as -1 - n
+            writeHeader(MAJOR_NEGATIVE, -1 - value);
+        } else {
+            writeHeader(MAJOR_UNSIGNED, value);
+        }
+        return this;
+    }
+
+    @Override
+    public CborWriter value(float value) {
+        if (value == (int) value && (value != 0 || 1 / value > 0)) {
+            return value((long) (int) value);
+        }
+        int bits = Float.floatToIntBits(value);
+        int half = toHalf(bits);
+        if (half >= 0) {
+            write(HALF);
+            write(half >> 8);
+            write(half);
+        } else {
+            write(SINGLE);
+            writeInt(bits);
+        }
+        return this;
+    }
+
+    @Override
+    public CborWriter value(double value) {
+        if ((float) value == value || Double.isNaN(value)) {
+            return value((float) value);
+        }
+        long bits = Double.doubleToLongBits(value);
+        write(DOUBLE);
+        writeInt((int) (bits >> 32));
+        writeInt((int) bits);
+        return this;
+    }
+
+    @Override
+    public CborWriter nullValue() {
+        write(NULL);
+        return this;
+    }
+
+    @Override
+    public CborWriter rawValue(byte[] value, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(value, offset, buffer, length, count);
+        length += count;
+        return this;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @param bits The IEEE 754 single precision bits of a value.
+     * @return The half precision bits of the value, or -1 if it cannot be represented exactly.
+     */
+    private static int toHalf(int bits) {
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) {
+            // infinity or NaN
+            return mantissa == 0 ? sign | 0x7c00 : 0x7e00;
+        }
+        if (exponent == 0 && mantissa == 0) {
+            return sign;
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            return -1;
+        }
+        if (halfExponent <= 0) {
+            // subnormal half precision value
+            int shift = 14 - halfExponent;
+            if (shift > 24) {
+                return -1;
+            }
+            int full = mantissa | 0x800000;
+            if ((full & ((1 << shift) - 1)) != 0) {
+                return -1;
+            }
+            return sign | (full >> shift);
+        }
+        if ((mantissa & 0x1fff) != 0) {
+            return -1;
+        }
+        return sign | (halfExponent << 10) | (mantissa >> 13);
+    }
+
+    private void writeText(String value) {
+        int count = value.length();
+        int utf8Length = 0;
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length += 1;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                utf8Length += 1;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeHeader(MAJOR_TEXT, utf8Length);
+        ensureCapacity(utf8Length);
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, not representable in UTF-8
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Write the initial byte of a data item followed by its argument in the fewest bytes.
+     */
+    private void writeHeader(int major, long argument) {
+        if (argument < 24) {
+            write(major | (int) argument);
+        } else if (argument < 0x100) {
+            write(major | 24);
+            write((int) argument);
+        } else if (argument < 0x10000) {
+            write(major | 25);
+            write((int) (argument >> 8));
+            write((int) argument);
+        } else if (argument < 0x100000000L) {
+            write(major | 26);
+            writeInt((int) argument);
+        } else {
+            write(major | 27);
+            writeInt((int) (argument >> 32));
+            writeInt((int) argument);
+        }
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[length++] = (byte) (value >> 24);
+        buffer[length++] = (byte) (value >> 16);
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void write(int b) {
+        if (length == buffer.length) {
+            ensureCapacity(1);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs received commands off the MQTT callback thread. Commands are striped over a number
+ * of lanes, each with a single worker thread and a bounded queue. All commands of the same
+ * type are assigned to the same lane, so they are processed in the order they arrived,
+ * while commands of different types may run in parallel.
+ *
+ * When the queue of a lane is full, the overflow policy decides whether the new command
+ * is dropped, the oldest queued command is dropped, or the new command is run on the
+ * calling thread. Note that running on the caller may process a command before others
+ * of its type that are still queued.
+ */
+public class CommandDispatcher {
+    private final static String TAG = CommandDispatcher.class.getName();
+
+    private final ThreadPoolExecutor[] lanes;
+    private final int queueCapacity;
+    private volatile Constants.OverflowPolicy overflowPolicy;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * @param laneCount      The number of lanes, i.e. of commands that may run in parallel.
+     * @param queueCapacity  The number of commands that may wait in each lane.
+     * @param overflowPolicy What to do with a command when its lane is full.
+     */
+    public CommandDispatcher(int laneCount, int queueCapacity, Constants.OverflowPolicy overflowPolicy) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        lanes = new ThreadPoolExecutor[laneCount];
+        RejectedExecutionHandler overflowHandler = new OverflowHandler();
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new LaneThreadFactory(i), overflowHandler);
+        }
+    }
+
+    /**
+     * @param command The type of a command.
+     * @return The lane that commands of the type are dispatched to.
+     */
+    public int getLane(String command) {
+        return (command.hashCode() & 0x7fffffff) % lanes.length;
+    }
+
+    /**
+     * Queue a command for processing on its lane.
+     *
+     * @param lane The lane of the command, as returned by getLane().
+     * @param task The processing of the command.
+     */
+    public void dispatch(int lane, Runnable task) {
+        dispatchedCount.incrementAndGet();
+        ThreadPoolExecutor executor = lanes[lane];
+        executor.execute(task);
+
+        int depth = executor.getQueue().size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    public Constants.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(Constants.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param lane A lane.
+     * @return The number of commands waiting in the lane.
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].getQueue().size();
+    }
+
+    /**
+     * @return The number of commands waiting in all lanes.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return The highest number of commands that have waited in a single lane.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * @return The number of commands dropped because their lane was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of commands run on the calling thread because their lane was full.
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    /**
+     * @return The number of commands that finished processing on a lane.
+     */
+    public long getCompletedCount() {
+        long completed = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            completed += lane.getCompletedTaskCount();
+        }
+        return completed;
+    }
+
+    /**
+     * Applies the overflow policy to a command that does not fit in its lane.
+     */
+    private class OverflowHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    Log.w(TAG, ".rejectedExecution() - lane full, dropping oldest command");
+                    if (executor.getQueue().poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                    executor.execute(task);
+                    break;
+                case CALLER_RUNS:
+                    Log.w(TAG, ".rejectedExecution() - lane full, running command on caller");
+                    callerRunsCount.incrementAndGet();
+                    task.run();
+                    break;
+                default:
+                    Log.w(TAG, ".rejectedExecution() - lane full, dropping command");
+                    droppedCount.incrementAndGet();
+                    break;
+            }
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final int lane;
+
+        LaneThreadFactory(int lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CommandDispatcher-" + lane);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+/**
+ * The fields of the data object of a command that a CommandHandler reads. Fields are
+ * declared once, and then extracted from each received payload by a single pass of a
+ * PayloadReader, skipping everything else. Numeric fields are parsed directly from the
+ * payload, and only text fields are decoded into strings.
+ *
+ * An instance is reused for every command of its handler, and must not be accessed
+ * concurrently.
+ */
+public class CommandFields {
+    private final static String TAG = CommandFields.class.getName();
+
+    private final static byte[] DATA = {'d'};
+
+    private final static int MISSING = 0;
+    private final static int NUMBER = 1;
+    private final static int TEXT = 2;
+
+    private final String[] names;
+    private final byte[][] nameBytes;
+    private final boolean[] text;
+    private final int[] types;
+    private final double[] numbers;
+    private final String[] strings;
+    private int count;
+
+    /**
+     * @param capacity The number of fields that will be declared.
+     */
+    public CommandFields(int capacity) {
+        names = new String[capacity];
+        nameBytes = new byte[capacity][];
+        text = new boolean[capacity];
+        types = new int[capacity];
+        numbers = new double[capacity];
+        strings = new String[capacity];
+    }
+
+    /**
+     * Declare a numeric field. The value may be sent as a JSON number or as a string
+     * containing a number, e.g. "150".
+     *
+     * @param name The name of the field in the data object.
+     * @return The index of the field.
+     */
+    public int addNumber(String name) {
+        return add(name, false);
+    }
+
+    /**
+     * Declare a text field.
+     *
+     * @param name The name of the field in the data object.
+     * @return The index of the field.
+     */
+    public int addText(String name) {
+        return add(name, true);
+    }
+
+    private int add(String name, boolean isText) {
+        names[count] = name;
+        nameBytes[count] = name.getBytes();
+        text[count] = isText;
+        return count++;
+    }
+
+    /**
+     * Extract the declared fields of the data object "d" of a payload.
+     *
+     * @param reader The reader, reset to the payload.
+     * @throws JSONException If the payload is malformed or has no data object.
+     */
+    public void read(PayloadReader reader) throws JSONException {
+        for (int i = 0; i < count; i++) {
+            types[i] = MISSING;
+            strings[i] = null;
+        }
+        if (reader.next() != PayloadReader.BEGIN_OBJECT) {
+            throw new JSONException("Expected an object");
+        }
+        boolean found = false;
+        int token;
+        while ((token = reader.next()) != PayloadReader.END_OBJECT) {
+            if (token != PayloadReader.NAME) {
+                throw new JSONException("Expected a member name");
+            }
+            if (!found && reader.nameEquals(DATA)) {
+                if (reader.next() != PayloadReader.BEGIN_OBJECT) {
+                    throw new JSONException("Expected d to be an object");
+                }
+                readData(reader);
+                found = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        if (!found) {
+            throw new JSONException("No value for d");
+        }
+    }
+
+    private void readData(PayloadReader reader) throws JSONException {
+        int token;
+        while ((token = reader.next()) != PayloadReader.END_OBJECT) {
+            if (token != PayloadReader.NAME) {
+                throw new JSONException("Expected a member name");
+            }
+            int index = indexOf(reader);
+            if (index < 0) {
+                reader.skipValue();
+                continue;
+            }
+            token = reader.next();
+            if (token == PayloadReader.BEGIN_OBJECT || token == PayloadReader.BEGIN_ARRAY) {
+                skipContainer(reader);
+                continue;
+            }
+            if (text[index]) {
+                if (token == PayloadReader.STRING) {
+                    strings[index] = reader.getString();
+                    types[index] = TEXT;
+                }
+            } else if (token == PayloadReader.NUMBER || token == PayloadReader.STRING) {
+                numbers[index] = reader.getDouble();
+                types[index] = NUMBER;
+            }
+        }
+    }
+
+    private int indexOf(PayloadReader reader) {
+        for (int i = 0; i < count; i++) {
+            if (reader.nameEquals(nameBytes[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip the rest of a container whose begin token was just read.
+     */
+    private static void skipContainer(PayloadReader reader) throws JSONException {
+        int skipDepth = 1;
+        while (skipDepth > 0) {
+            int token = reader.next();
+            if (token == PayloadReader.BEGIN_OBJECT || token == PayloadReader.BEGIN_ARRAY) {
+                skipDepth++;
+            } else if (token == PayloadReader.END_OBJECT || token == PayloadReader.END_ARRAY) {
+                skipDepth--;
+            } else if (token == PayloadReader.END_DOCUMENT) {
+                throw new JSONException("Unexpected end of payload");
+            }
+        }
+    }
+
+    /**
+     * @param index The index of a field.
+     * @return True if the field was present in the last payload.
+     */
+    public boolean has(int index) {
+        return types[index] != MISSING;
+    }
+
+    /**
+     * @param index The index of a numeric field.
+     * @return The value of the field.
+     * @throws JSONException If the field was not present in the last payload.
+     */
+    public double getDouble(int index) throws JSONException {
+        if (types[index] != NUMBER) {
+            throw new JSONException("No numeric value for " + names[index]);
+        }
+        return numbers[index];
+    }
+
+    /**
+     * @param index The index of a numeric field.
+     * @return The value of the field, truncated to an int.
+     * @throws JSONException If the field was not present in the last payload.
+     */
+    public int getInt(int index) throws JSONException {
+        return (int) getDouble(index);
+    }
+
+    /**
+     * @param index The index of a text field.
+     * @return The value of the field.
+     * @throws JSONException If the field was not present in the last payload.
+     */
+    public String getString(int index) throws JSONException {
+        if (types[index] != TEXT) {
+            throw new JSONException("No text value for " + names[index]);
+        }
+        return strings[index];
+    }
+}
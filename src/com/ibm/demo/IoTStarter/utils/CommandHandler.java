@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+/**
+ * Handler for a command received by the application, registered with MessageConductor.
+ */
+public interface CommandHandler {
+
+    /**
+     * @return The fields the handler reads from the data object of its commands, or null
+     * if it does not read the payload.
+     */
+    CommandFields getFields();
+
+    /**
+     * Handle a received command.
+     *
+     * @param fields The fields of the command, extracted from its payload, or null if the
+     *               handler does not read the payload.
+     * @param topic The topic the command was received on.
+     * @throws JSONException If the command does not contain the expected data.
+     */
+    void handleCommand(CommandFields fields, String topic) throws JSONException;
+}
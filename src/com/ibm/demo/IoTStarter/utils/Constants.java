@@ -46,6 +46,30 @@ public class Constants {
         CONNECTING, DISCONNECTING, SUBSCRIBE, UNSUBSCRIBE, PUBLISH
     }
 
+    public enum OverflowPolicy {
+        DROP_NEWEST, DROP_OLDEST, CALLER_RUNS
+    }
+
+    public enum RatePolicy {
+        QUEUE, COALESCE_LATEST, DROP
+    }
+
+    public enum HighRateMode {
+        AGGREGATE, RAW
+    }
+
+    public enum Waveform {
+        SINE, SQUARE, TRIANGLE, NOISE
+    }
+
+    public enum MotionState {
+        UNKNOWN, STATIONARY, MOVING
+    }
+
+    public enum Direction {
+        OUTBOUND, INBOUND
+    }
+
     // IoT properties
     public final static String AUTH_TOKEN = "authtoken";
     public final static String DEVICE_ID = "deviceid";
@@ -55,7 +79,11 @@ public class Constants {
     // IoT topic formats
     public final static String EVENT_TOPIC = "iot-2/evt/";
     public final static String COMMAND_TOPIC = "iot-2/cmd/";
-    public final static String FORMAT_TOPIC = "/fmt/json";
+    public final static String FORMAT_TOPIC = "/fmt/";
+
+    // Payload formats, used as the last segment of topics
+    public final static String FORMAT_JSON = "json";
+    public final static String FORMAT_CBOR = "cbor";
 
     // IoT events and commands
     public final static String ACCEL_EVENT = "accel";
@@ -66,6 +94,21 @@ public class Constants {
     public final static String ALERT_EVENT = "alert";
     public final static String UNREAD_EVENT = "unread";
     public final static String STATUS_EVENT = "status";
+    public final static String ACCEL_WINDOW_EVENT = "accelwindow";
+    public final static String ACCEL_RAW_EVENT = "accelraw";
+    public final static String VIBRATION_EVENT = "vibration";
+    public final static String STATS_EVENT = "stats";
+
+    // Sensor source events
+    public final static String GYROSCOPE_EVENT = "gyroscope";
+    public final static String GRAVITY_EVENT = "gravity";
+    public final static String LINEAR_ACCEL_EVENT = "linearaccel";
+    public final static String ROTATION_EVENT = "rotation";
+    public final static String PRESSURE_EVENT = "pressure";
+    public final static String LIGHT_LEVEL_EVENT = "lightlevel";
+    public final static String PROXIMITY_EVENT = "proximity";
+    public final static String HUMIDITY_EVENT = "humidity";
+    public final static String TEMPERATURE_EVENT = "temperature";
 
     public final static String CONNECTIVITY_MESSAGE = "connectivityMessage";
     public final static String ACTION_INTENT_CONNECTIVITY_MESSAGE_RECEIVED = Constants.APP_ID + "." + "CONNECTIVITY_MESSAGE_RECEIVED";
@@ -90,4 +133,106 @@ public class Constants {
     // Location Services
     public final static int LOCATION_MIN_TIME = 30000;
     public final static float LOCATION_MIN_DISTANCE = 5;
+
+    // Motion adaptive location: update intervals in milliseconds, distances in meters
+    public final static boolean LOCATION_ADAPTIVE = false;
+    public final static int LOCATION_MOVING_TIME = 5000;
+    public final static float LOCATION_MOVING_DISTANCE = 5;
+    public final static int LOCATION_STATIONARY_TIME = 300000;
+    public final static float LOCATION_STATIONARY_DISTANCE = 50;
+    public final static int LOCATION_HISTORY_SIZE = 64;
+
+    // Motion detection: rms deviation of the acceleration in m/s^2, times in milliseconds
+    public final static double MOTION_THRESHOLD = 0.25;
+    public final static long MOTION_TIME_CONSTANT = 2000;
+    public final static long MOTION_STATIONARY_DELAY = 60000;
+
+    // Outbound message journal
+    public final static long JOURNAL_SEGMENT_SIZE = 256 * 1024;
+    public final static long JOURNAL_MAX_BYTES = 8 * 1024 * 1024;
+    public final static long JOURNAL_MESSAGE_TTL = 24 * 60 * 60 * 1000;
+    public final static long JOURNAL_RETRY_DELAY = 1000;
+    public final static long JOURNAL_MAX_RETRY_DELAY = 30 * 1000;
+    public final static int JOURNAL_MAX_ATTEMPTS = 5;
+    public final static int JOURNAL_COMMIT_INTERVAL = 32;
+
+    // Publishes the client accepts before their acknowledgement, fixed in Paho 1.0
+    public final static int MQTT_MAX_INFLIGHT = 10;
+
+    // Telemetry batching
+    public final static boolean BATCH_ENABLED = true;
+    public final static int BATCH_MAX_COUNT = 20;
+    public final static int BATCH_MAX_BYTES = 16 * 1024;
+    public final static long BATCH_MAX_LATENCY = 2000;
+
+    // High rate sensor sampling
+    public final static boolean SENSOR_HIGH_RATE = false;
+    public final static HighRateMode SENSOR_HIGH_RATE_MODE = HighRateMode.AGGREGATE;
+    public final static int SENSOR_RING_CAPACITY = 2048;
+
+    // Sampling period of sensor sources, in microseconds, and the name reported in accel events
+    public final static int SENSOR_SOURCE_RATE = 200000;
+    public final static String DEVICE_NAME = "MVK Nexus Accelerometer";
+
+    // Low power mode, maximum report latency of buffered sensor events in microseconds
+    public final static boolean SENSOR_LOW_POWER = false;
+    public final static int SENSOR_MAX_REPORT_LATENCY = 10000000;
+
+    // Vibration spectrum features, band edges in Hz
+    public final static boolean VIBRATION_ENABLED = false;
+    public final static int VIBRATION_FFT_SIZE = 512;
+    public final static int VIBRATION_PEAKS = 3;
+    public final static double[] VIBRATION_BAND_EDGES = {5, 10, 20, 50, 100};
+
+    // Orientation fusion, time constant of the accelerometer/magnetometer correction in seconds
+    public final static double FUSION_TIME_CONSTANT = 0.5;
+
+    // Report by exception of accel events: acceleration in m/s^2, angles in radians, location in degrees
+    public final static boolean DEADBAND_ENABLED = false;
+    public final static double DEADBAND_ACCEL = 0.2;
+    public final static double DEADBAND_ORIENTATION = 0.035;
+    public final static double DEADBAND_LOCATION = 0.0001;
+    public final static double DEADBAND_RELATIVE = 0;
+    public final static long DEADBAND_MAX_SILENCE = 60000;
+
+    // Command dispatching
+    public final static int DISPATCH_LANES = 4;
+    public final static int DISPATCH_QUEUE_CAPACITY = 32;
+    public final static OverflowPolicy DISPATCH_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+
+    // Publish rate limits, in messages per second
+    public final static double RATE_GLOBAL_PER_SECOND = 10;
+    public final static int RATE_GLOBAL_BURST = 20;
+    public final static double RATE_TOPIC_PER_SECOND = 4;
+    public final static int RATE_TOPIC_BURST = 8;
+
+    // Local broker harness, timeout in milliseconds
+    public final static String HARNESS_EVENT = "harness";
+    public final static String HARNESS_COMMAND = "harnessping";
+    public final static long HARNESS_TIMEOUT = 30000;
+
+    // Metrics, rolling window of rates in milliseconds
+    public final static String METRIC_PUBLISHED = "published";
+    public final static String METRIC_RECEIVED = "received";
+    public final static String METRIC_UNREAD = "unread";
+    public final static String METRIC_CONNECTS = "connects";
+    public final static String METRIC_CONNECTION_LOSSES = "connectionlosses";
+    public final static long METRICS_WINDOW = 10000;
+    public final static int METRICS_BUCKETS = 10;
+
+    // Device statistics event, period in milliseconds
+    public final static boolean STATS_ENABLED = true;
+    public final static long STATS_PERIOD = 60000;
+
+    // Message log, number of text and alert messages kept
+    public final static int MESSAGE_LOG_CAPACITY = 256;
+
+    // Pipeline tracing, number of events kept and the file in app storage they are dumped to
+    public final static boolean TRACE_ENABLED = false;
+    public final static int TRACE_CAPACITY = 16384;
+    public final static String TRACE_FILE = "trace.json";
+
+    // Periodic telemetry, in milliseconds
+    public final static long TELEMETRY_PERIOD = 1000;
+    public final static int SCHEDULER_THREADS = 2;
 }
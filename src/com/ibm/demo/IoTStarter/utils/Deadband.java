@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Report by exception filter for a set of numeric channels. A sample is reported when any
+ * channel moved past its deadband since the last reported sample, or when nothing was
+ * reported for the maximum silence, so that consumers still see that the device is alive.
+ *
+ * The deadband of a channel is the larger of its absolute threshold and its relative
+ * threshold times the magnitude of the last reported value. Angular channels, in radians,
+ * are compared the short way around the circle.
+ */
+public class Deadband {
+
+    private final double[] absolute;
+    private final double[] relative;
+    private final boolean[] angular;
+    private final double[] reported;
+    private long maxSilence;
+    private long lastReport;
+    private boolean primed;
+
+    private long reportedCount;
+    private long suppressedCount;
+
+    /**
+     * @param channels   The number of channels in a sample.
+     * @param maxSilence The maximum time between reported samples, in milliseconds, or 0 for none.
+     */
+    public Deadband(int channels, long maxSilence) {
+        absolute = new double[channels];
+        relative = new double[channels];
+        angular = new boolean[channels];
+        reported = new double[channels];
+        this.maxSilence = maxSilence;
+    }
+
+    /**
+     * Set the thresholds of a range of channels. Thresholds of zero report every change.
+     *
+     * @param first    The first channel.
+     * @param count    The number of channels.
+     * @param absolute The absolute threshold, in the unit of the channels.
+     * @param relative The relative threshold, as a fraction of the last reported value.
+     */
+    public synchronized void setThreshold(int first, int count, double absolute, double relative) {
+        for (int i = first; i < first + count; i++) {
+            this.absolute[i] = absolute;
+            this.relative[i] = relative;
+        }
+    }
+
+    /**
+     * Mark a range of channels as angles in radians.
+     */
+    public synchronized void setAngular(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            angular[i] = true;
+        }
+    }
+
+    public synchronized void setMaxSilence(long maxSilence) {
+        this.maxSilence = maxSilence;
+    }
+
+    /**
+     * Decide whether a sample is reported. A reported sample becomes the reference for
+     * the following ones.
+     *
+     * @param values The channel values of the sample.
+     * @param now    The current time, in milliseconds.
+     * @return True if the sample should be reported.
+     */
+    public synchronized boolean update(double[] values, long now) {
+        boolean report = !primed || (maxSilence > 0 && now - lastReport >= maxSilence);
+        for (int i = 0; i < reported.length && !report; i++) {
+            double delta = Math.abs(values[i] - reported[i]);
+            if (angular[i] && delta > Math.PI) {
+                delta = 2 * Math.PI - delta;
+            }
+            report = delta > Math.max(absolute[i], relative[i] * Math.abs(reported[i]));
+        }
+        if (!report) {
+            suppressedCount++;
+            return false;
+        }
+        System.arraycopy(values, 0, reported, 0, reported.length);
+        lastReport = now;
+        primed = true;
+        reportedCount++;
+        return true;
+    }
+
+    /**
+     * Report the next sample regardless of the thresholds.
+     */
+    public synchronized void reset() {
+        primed = false;
+    }
+
+    public synchronized long getReportedCount() {
+        return reportedCount;
+    }
+
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+/**
+ * Parse decimal numbers directly from ASCII bytes, without creating a String.
+ */
+public class DecimalParser {
+
+    private final static double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /**
+     * @param buffer Buffer containing the number.
+     * @param offset Offset of the number in the buffer.
+     * @param length Length of the number.
+     * @return The value of the number.
+     * @throws JSONException If the bytes are not a decimal number.
+     */
+    public static double parse(byte[] buffer, int offset, int length) throws JSONException {
+        int pos = offset;
+        int end = offset + length;
+        // leading and trailing white space is allowed, as in " 150"
+        while (pos < end && buffer[pos] == ' ') {
+            pos++;
+        }
+        while (end > pos && buffer[end - 1] == ' ') {
+            end--;
+        }
+        boolean negative = false;
+        if (pos < end && (buffer[pos] == '-' || buffer[pos] == '+')) {
+            negative = buffer[pos] == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            if (mantissa < 100000000000000000L) {
+                mantissa = mantissa * 10 + (buffer[pos] - '0');
+            } else {
+                scale++;
+            }
+            pos++;
+            digits++;
+        }
+        if (pos < end && buffer[pos] == '.') {
+            pos++;
+            while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9') {
+                if (mantissa < 100000000000000000L) {
+                    mantissa = mantissa * 10 + (buffer[pos] - '0');
+                    scale--;
+                }
+                pos++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            throw new JSONException("Expected a number");
+        }
+        if (pos < end && (buffer[pos] == 'e' || buffer[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buffer[pos] == '-' || buffer[pos] == '+')) {
+                negativeExponent = buffer[pos] == '-';
+                pos++;
+            }
+            int exponent = 0;
+            int exponentDigits = 0;
+            while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9') {
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + (buffer[pos] - '0');
+                }
+                pos++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                throw new JSONException("Expected an exponent");
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (pos != end) {
+            throw new JSONException("Unexpected character in number");
+        }
+
+        double value = mantissa;
+        if (scale > 0) {
+            value = scale < POW10.length ? value * POW10[scale] : value * Math.pow(10, scale);
+        } else if (scale < 0) {
+            value = -scale < POW10.length ? value / POW10[-scale] : value / Math.pow(10, -scale);
+        }
+        return negative ? -value : value;
+    }
+}
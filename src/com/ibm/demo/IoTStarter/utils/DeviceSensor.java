@@ -20,36 +20,109 @@ import android.content.Intent;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.fragments.IoTFragment;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class implements the SensorEventListener interface. When the application creates the MQTT
- * connection, it registers listeners for the accelerometer and magnetometer sensors.
- * Output from these sensors is used to publish accel event messages.
+ * connection, it registers listeners for the accelerometer, magnetometer and gyroscope sensors.
+ * Output from these sensors is used to publish accel event messages. The orientation is
+ * fused from all three sensors by an OrientationFilter on every sensor event.
+ *
+ * The other sensors enabled in the profile, such as pressure or light, are SensorSources
+ * sampled by the same listener at their own rate and published by the same task as the
+ * accel events, each as its own event.
+ *
+ * In high rate mode, the accelerometer is sampled as fast as possible and every sample is
+ * captured into a SampleRing. Each publish period then sends either the aggregates of the
+ * samples of the period, or all of the samples. In vibration mode, the samples of each period
+ * are also analyzed by a VibrationAnalyzer and its spectral features published.
+ *
+ * In deadband mode, accel event messages are only published when a channel moved past its
+ * threshold since the last published message, or when the maximum silence elapsed.
+ *
+ * In low power mode, on Android 4.4 and later, the sensors are registered with a maximum
+ * report latency, so that the sensor hub buffers their events in its FIFO instead of waking
+ * the application processor for each of them. The FIFO is flushed before each publish, and
+ * the buffered events flow into the same publish path as other events.
+ *
+ * When synthetic sources are added, they replace the hardware sensors, so that the pipeline
+ * can be driven at a controlled rate without physical sensors.
  */
-public class DeviceSensor implements SensorEventListener {
+public class DeviceSensor implements SensorEventListener, SampleListener {
     private final String TAG = DeviceSensor.class.getName();
     private static DeviceSensor instance;
     private IoTStarterApplication app;
     private SensorManager sensorManager;
     private Sensor accelerometer;
     private Sensor magnetometer;
+    private Sensor gyroscope;
     private Context context;
-    private Timer timer;
+    private final SendTask sendTask = new SendTask();
+    private TelemetryScheduler.Registration sendRegistration;
+    private long publishPeriod = Constants.TELEMETRY_PERIOD;
+
+    // Low power mode, in which sensor events are buffered by the sensor hub
+    private volatile boolean lowPower = Constants.SENSOR_LOW_POWER;
+    private volatile int maxReportLatency = Constants.SENSOR_MAX_REPORT_LATENCY;
+    private SensorEventListener listener = this;
+    private BatchingListener batchingListener;
+    private volatile boolean flushPending;
+
+    // Synthetic sources replacing the hardware sensors
+    private final List<SyntheticSource> syntheticSources = new CopyOnWriteArrayList<SyntheticSource>();
+    private final SampleListener syntheticListener = new SampleListener() {
+        @Override
+        public void onSample(int type, long timestamp, float[] values) {
+            // samples of several sources arrive on their own threads
+            synchronized (this) {
+                DeviceSensor.this.onSample(type, timestamp, values);
+            }
+        }
+    };
     private boolean isEnabled = false;
+    private final SensorSources sources = new SensorSources();
+
+    // High rate sampling of the accelerometer
+    private volatile boolean highRate = Constants.SENSOR_HIGH_RATE;
+    private volatile Constants.HighRateMode highRateMode = Constants.SENSOR_HIGH_RATE_MODE;
+    private final SampleRing accelRing = new SampleRing(Constants.SENSOR_RING_CAPACITY, 3);
+    private final SampleWindow accelWindow = new SampleWindow(accelRing.getCapacity(), 3);
+    private volatile boolean vibration = Constants.VIBRATION_ENABLED;
+    private final VibrationAnalyzer vibrationAnalyzer = new VibrationAnalyzer(accelRing.getCapacity(),
+            Constants.VIBRATION_FFT_SIZE, Constants.VIBRATION_PEAKS, Constants.VIBRATION_BAND_EDGES);
+
+    // Report by exception of accel events
+    private final static int CHANNEL_ACCEL = 0;
+    private final static int CHANNEL_ORIENTATION = 3;
+    private final static int CHANNEL_LOCATION = 6;
+    private final static int CHANNEL_COUNT = 8;
+    private volatile boolean deadbandEnabled = Constants.DEADBAND_ENABLED;
+    private final Deadband deadband = new Deadband(CHANNEL_COUNT, Constants.DEADBAND_MAX_SILENCE);
+
+    // Motion state from the accelerometer, used to adapt location updates
+    private final MotionDetector motionDetector = new MotionDetector(Constants.MOTION_THRESHOLD,
+            Constants.MOTION_TIME_CONSTANT, Constants.MOTION_STATIONARY_DELAY);
 
     public DeviceSensor(Context context) {
         this.context = context;
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
         app = (IoTStarterApplication) context.getApplicationContext();
+        deadband.setThreshold(CHANNEL_ACCEL, 3, Constants.DEADBAND_ACCEL, Constants.DEADBAND_RELATIVE);
+        deadband.setThreshold(CHANNEL_ORIENTATION, 3, Constants.DEADBAND_ORIENTATION, Constants.DEADBAND_RELATIVE);
+        deadband.setThreshold(CHANNEL_LOCATION, 2, Constants.DEADBAND_LOCATION, Constants.DEADBAND_RELATIVE);
+        deadband.setAngular(CHANNEL_ORIENTATION, 3);
     }
 
     /**
@@ -70,62 +143,392 @@ public class DeviceSensor implements SensorEventListener {
     public void enableSensor() {
         Log.i(TAG, ".enableSensor() entered");
         if (isEnabled == false) {
-            sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
-            sensorManager.registerListener(this, magnetometer, SensorManager.SENSOR_DELAY_NORMAL);
-            timer = new Timer();
-            timer.scheduleAtFixedRate(new SendTimerTask(), 1000, 1000);
+            batchingListener = null;
+            listener = this;
+            if (!syntheticSources.isEmpty()) {
+                sources.configure(app.getSensors());
+                for (SyntheticSource source : syntheticSources) {
+                    source.rewind();
+                    source.start(syntheticListener);
+                }
+            } else {
+                if (lowPower && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    batchingListener = new BatchingListener();
+                    listener = batchingListener;
+                }
+                int accelDelay = isCapturing() ? SensorManager.SENSOR_DELAY_FASTEST : SensorManager.SENSOR_DELAY_NORMAL;
+                register(accelerometer, accelDelay);
+                register(magnetometer, SensorManager.SENSOR_DELAY_NORMAL);
+                if (gyroscope != null) {
+                    int gyroDelay = highRate ? SensorManager.SENSOR_DELAY_FASTEST : SensorManager.SENSOR_DELAY_GAME;
+                    register(gyroscope, gyroDelay);
+                }
+                enableSources();
+            }
+            flushPending = false;
+            Runnable task = batchingListener != null ? new FlushTask() : sendTask;
+            sendRegistration = TelemetryScheduler.getInstance().register(Constants.ACCEL_EVENT, task, getSendPeriod());
             isEnabled = true;
         }
     }
 
+    /**
+     * Register the listeners for the sensor sources enabled in the profile. A source of a
+     * sensor that is already registered for the orientation is sampled at the rate of the
+     * orientation.
+     */
+    private void enableSources() {
+        sources.configure(app.getSensors());
+        for (SensorSource source : sources.getEnabled()) {
+            Sensor sensor = sensorManager.getDefaultSensor(source.getType());
+            if (sensor == null) {
+                Log.w(TAG, ".enableSources() - no sensor for " + source.getName());
+            } else if (source.getType() != Sensor.TYPE_GYROSCOPE || gyroscope == null) {
+                register(sensor, source.getRate());
+            }
+        }
+    }
+
+    /**
+     * Register the listener for a sensor, with the maximum report latency in low power mode.
+     *
+     * @param sensor The sensor.
+     * @param rate   The sampling period in microseconds, or one of the SENSOR_DELAY constants.
+     */
+    private void register(Sensor sensor, int rate) {
+        if (batchingListener != null) {
+            sensorManager.registerListener(batchingListener, sensor, rate, maxReportLatency);
+        } else {
+            sensorManager.registerListener(this, sensor, rate);
+        }
+    }
+
+    /**
+     * @return The period of the send task. In low power mode, publishing more often than the
+     * maximum report latency would flush the FIFO before it fills.
+     */
+    private long getSendPeriod() {
+        return batchingListener != null ? Math.max(publishPeriod, maxReportLatency / 1000) : publishPeriod;
+    }
+
+    /**
+     * @return The sensor sources, which are enabled from the profile when the sensors are enabled.
+     */
+    public SensorSources getSources() {
+        return sources;
+    }
+
     /**
      * Disable the listeners.
      */
     public void disableSensor() {
         Log.d(TAG, ".disableSensor() entered");
-        if (timer != null && isEnabled) {
-            timer.cancel();
-            sensorManager.unregisterListener(this);
+        if (sendRegistration != null && isEnabled) {
+            sendRegistration.cancel();
+            sensorManager.unregisterListener(listener);
+            for (SyntheticSource source : syntheticSources) {
+                source.stop();
+            }
             isEnabled = false;
         }
     }
 
-    // Values used for accelerometer, magnetometer, orientation sensor data
+    /**
+     * Replace the hardware sensors by a synthetic source. While synthetic sources are added,
+     * no hardware sensor is registered.
+     *
+     * @param source The source, started and stopped with the sensors.
+     */
+    public void addSyntheticSource(SyntheticSource source) {
+        Log.d(TAG, ".addSyntheticSource() entered");
+        syntheticSources.add(source);
+        restart();
+    }
+
+    /**
+     * Remove the synthetic sources, returning to the hardware sensors.
+     */
+    public void clearSyntheticSources() {
+        Log.d(TAG, ".clearSyntheticSources() entered");
+        boolean wasEnabled = isEnabled;
+        disableSensor();
+        syntheticSources.clear();
+        if (wasEnabled) {
+            enableSensor();
+        }
+    }
+
+    /**
+     * Register the listeners again, if enabled, to apply a change of configuration.
+     */
+    private void restart() {
+        if (isEnabled) {
+            disableSensor();
+            enableSensor();
+        }
+    }
+
+    /**
+     * Select whether every accelerometer sample is captured and published.
+     *
+     * @param highRate True to sample the accelerometer as fast as possible.
+     * @param mode     Whether to publish the aggregates of each period or all of its samples.
+     */
+    public void setHighRate(boolean highRate, Constants.HighRateMode mode) {
+        Log.d(TAG, ".setHighRate() entered");
+        this.highRateMode = mode;
+        if (this.highRate != highRate) {
+            boolean wasCapturing = isCapturing();
+            this.highRate = highRate;
+            if (isEnabled && wasCapturing != isCapturing()) {
+                // register again with the new sampling rate
+                disableSensor();
+                enableSensor();
+            }
+        }
+    }
+
+    /**
+     * Change the period at which accel event messages are published.
+     *
+     * @param periodMillis The publish period, in milliseconds.
+     */
+    public void setPublishPeriod(long periodMillis) {
+        Log.d(TAG, ".setPublishPeriod() entered");
+        publishPeriod = periodMillis;
+        if (isEnabled) {
+            sendRegistration.setPeriod(getSendPeriod());
+        }
+    }
+
+    /**
+     * Select whether sensor events are buffered by the sensor hub. Low power mode requires
+     * Android 4.4; on earlier versions the sensors are registered as usual.
+     *
+     * @param lowPower         True to buffer sensor events in hardware.
+     * @param maxReportLatency The maximum time events are buffered, in microseconds.
+     */
+    public void setLowPower(boolean lowPower, int maxReportLatency) {
+        Log.d(TAG, ".setLowPower() entered");
+        boolean changed = this.lowPower != lowPower || this.maxReportLatency != maxReportLatency;
+        this.lowPower = lowPower;
+        this.maxReportLatency = maxReportLatency;
+        if (isEnabled && changed) {
+            // register again with the new report latency
+            disableSensor();
+            enableSensor();
+        }
+    }
+
+    public boolean isLowPower() {
+        return lowPower;
+    }
+
+    public long getPublishPeriod() {
+        return publishPeriod;
+    }
+
+    public boolean isHighRate() {
+        return highRate;
+    }
+
+    /**
+     * Select whether the vibration spectrum of the accelerometer is published each period.
+     * Vibration mode samples the accelerometer as fast as possible, as high rate mode does.
+     *
+     * @param enabled True to publish vibration events.
+     */
+    public void setVibrationEnabled(boolean enabled) {
+        Log.d(TAG, ".setVibrationEnabled() entered");
+        boolean wasCapturing = isCapturing();
+        vibration = enabled;
+        if (isEnabled && wasCapturing != isCapturing()) {
+            // register again with the new sampling rate
+            disableSensor();
+            enableSensor();
+        }
+    }
+
+    public boolean isVibrationEnabled() {
+        return vibration;
+    }
+
+    /**
+     * @return True if every accelerometer sample is captured into the ring.
+     */
+    private boolean isCapturing() {
+        return highRate || vibration;
+    }
+
+    /**
+     * @return True if the accelerometer samples are kept in the ring, either to capture all of
+     * them or, in low power mode, to publish each sample of the batches delivered by the FIFO.
+     */
+    private boolean isBuffering() {
+        return isCapturing() || batchingListener != null;
+    }
+
+    /**
+     * Select whether accel event messages are only published when the sensor values change.
+     *
+     * @param enabled True to publish by exception.
+     */
+    public void setDeadbandEnabled(boolean enabled) {
+        Log.d(TAG, ".setDeadbandEnabled() entered");
+        if (enabled && !deadbandEnabled) {
+            // start from a fresh reference sample
+            deadband.reset();
+        }
+        deadbandEnabled = enabled;
+    }
+
+    public boolean isDeadbandEnabled() {
+        return deadbandEnabled;
+    }
+
+    /**
+     * @param absolute The threshold for acceleration x, y and z, in m/s^2.
+     * @param relative The threshold as a fraction of the last published value.
+     */
+    public void setAccelDeadband(double absolute, double relative) {
+        deadband.setThreshold(CHANNEL_ACCEL, 3, absolute, relative);
+    }
+
+    /**
+     * @param absolute The threshold for roll, pitch and yaw, in radians.
+     * @param relative The threshold as a fraction of the last published value.
+     */
+    public void setOrientationDeadband(double absolute, double relative) {
+        deadband.setThreshold(CHANNEL_ORIENTATION, 3, absolute, relative);
+    }
+
+    /**
+     * @param absolute The threshold for longitude and latitude, in degrees.
+     * @param relative The threshold as a fraction of the last published value.
+     */
+    public void setLocationDeadband(double absolute, double relative) {
+        deadband.setThreshold(CHANNEL_LOCATION, 2, absolute, relative);
+    }
+
+    /**
+     * @param maxSilence The maximum time between published messages in deadband mode, in milliseconds.
+     */
+    public void setMaxSilence(long maxSilence) {
+        deadband.setMaxSilence(maxSilence);
+    }
+
+    /**
+     * @return The deadband filter, for its published and suppressed message counts.
+     */
+    public Deadband getDeadband() {
+        return deadband;
+    }
+
+    /**
+     * @return The detector of the motion state of the device, fed with accelerometer samples.
+     */
+    public MotionDetector getMotionDetector() {
+        return motionDetector;
+    }
+
+    /**
+     * @param quaternion Array receiving the fused orientation quaternion w, x, y, z.
+     */
+    public void getQuaternion(float[] quaternion) {
+        float[] sample = new float[snapshot.size()];
+        snapshot.read(sample);
+        System.arraycopy(sample, SNAPSHOT_Q, quaternion, 0, 4);
+    }
+
+    /**
+     * @return The number of high rate samples that were overwritten before they could be published.
+     */
+    public long getLostSampleCount() {
+        return accelRing.getLostCount();
+    }
+
+    // Values used for accelerometer, magnetometer, orientation sensor data, owned by the sensor thread
     float G[] = new float[3]; // gravity x,y,z
     float M[] = new float[3]; // geomagnetic field x,y,z
     float R[] = new float[9]; // rotation matrix
     float I[] = new float[9]; // inclination matrix
     float O[] = new float[3]; // orientation azimuth, pitch, roll
-    float previousO[] = new float[3]; // orientation azimuth, pitch, roll
+    float Q[] = new float[4]; // orientation quaternion w, x, y, z
     float yaw;
+    private final OrientationFilter orientationFilter = new OrientationFilter(Constants.FUSION_TIME_CONSTANT);
+
+    // Latest gravity, orientation, yaw and quaternion, written by the sensor thread and read by the publisher
+    private final static int SNAPSHOT_G = 0;
+    private final static int SNAPSHOT_O = 3;
+    private final static int SNAPSHOT_YAW = 6;
+    private final static int SNAPSHOT_Q = 7;
+    private final FloatSnapshot snapshot = new FloatSnapshot(11);
+    private final Tracer tracer = Tracer.getInstance();
 
     /**
-     * Callback for processing data from the registered sensors. Accelerometer and magnetometer
-     * data are used together to get orientation data.
+     * Callback for processing data from the registered sensors. Gyroscope data is integrated
+     * into the orientation, and accelerometer and magnetometer data correct its drift.
      *
      * @param sensorEvent The event containing the sensor data values.
      */
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
         Log.v(TAG, "onSensorChanged() entered");
-        if (sensorEvent.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            Log.v(TAG, "Accelerometer -- x: " + sensorEvent.values[0] + " y: "
-                    + sensorEvent.values[1] + " z: " + sensorEvent.values[2]);
-            G = sensorEvent.values;
+        onSample(sensorEvent.sensor.getType(), sensorEvent.timestamp, sensorEvent.values);
+    }
 
-        } else if (sensorEvent.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            Log.v(TAG, "Magnetometer -- x: " + sensorEvent.values[0] + " y: "
-                    + sensorEvent.values[1] + " z: " + sensorEvent.values[2]);
-            M = sensorEvent.values;
+    /**
+     * Process a sample of a hardware or synthetic sensor. Called by one thread at a time.
+     *
+     * @param type      The Android sensor type of the sample.
+     * @param timestamp The time of the sample, in nanoseconds.
+     * @param values    The values of the sample.
+     */
+    @Override
+    public void onSample(int type, long timestamp, float[] values) {
+        long start = tracer.begin();
+        processSample(type, timestamp, values);
+        tracer.end(Tracer.SENSOR, start, type);
+    }
+
+    private void processSample(int type, long timestamp, float[] values) {
+        SensorSource source = sources.getEnabled(type);
+        if (source != null) {
+            source.update(values);
         }
-        if (G != null && M != null) {
-            if (sensorManager.getRotationMatrix(R, I, G, M)) {
-                previousO = O.clone();
-                O = sensorManager.getOrientation(R, O);
-                yaw = O[0] - previousO[0];
-                Log.v(TAG, "Orientation: azimuth: " + O[0] + " pitch: " + O[1] + " roll: " + O[2] + " yaw: " + yaw);
+        if (type != Sensor.TYPE_ACCELEROMETER && type != Sensor.TYPE_MAGNETIC_FIELD && type != Sensor.TYPE_GYROSCOPE) {
+            return;
+        }
+
+        if (type == Sensor.TYPE_ACCELEROMETER) {
+            // the framework reuses the values array, so it is copied
+            System.arraycopy(values, 0, G, 0, 3);
+            motionDetector.add(timestamp, values);
+            if (isBuffering()) {
+                accelRing.add(timestamp, values);
             }
+
+        } else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
+            System.arraycopy(values, 0, M, 0, 3);
+
+        } else if (type == Sensor.TYPE_GYROSCOPE) {
+            orientationFilter.updateGyro(values, timestamp);
+        }
+        if (type != Sensor.TYPE_GYROSCOPE && SensorManager.getRotationMatrix(R, I, G, M)) {
+            orientationFilter.correct(R, timestamp);
         }
+        if (orientationFilter.isInitialized()) {
+            orientationFilter.getOrientation(O);
+            orientationFilter.getQuaternion(Q);
+            yaw = O[0];
+        }
+
+        snapshot.beginWrite();
+        snapshot.set(SNAPSHOT_G, G, 0, 3);
+        snapshot.set(SNAPSHOT_O, O, 0, 3);
+        snapshot.set(SNAPSHOT_YAW, yaw);
+        snapshot.set(SNAPSHOT_Q, Q, 0, 4);
+        snapshot.endWrite();
     }
 
     /**
@@ -140,16 +543,89 @@ public class DeviceSensor implements SensorEventListener {
     }
 
     /**
-     * Timer task for sending accel data on 1000ms intervals
+     * Listener used in low power mode, which also receives the completion of FIFO flushes.
+     * Only loaded on Android 4.4 and later.
      */
-    private class SendTimerTask extends TimerTask {
+    private class BatchingListener implements SensorEventListener2 {
+        @Override
+        public void onSensorChanged(SensorEvent sensorEvent) {
+            DeviceSensor.this.onSensorChanged(sensorEvent);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int i) {
+            DeviceSensor.this.onAccuracyChanged(sensor, i);
+        }
 
         /**
-         * Publish an accel event message.
+         * Publish once the buffered accelerometer events were delivered.
+         *
+         * @param sensor The sensor whose FIFO was flushed.
+         */
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            Log.v(TAG, "onFlushCompleted() entered");
+            if (sensor.getType() == Sensor.TYPE_ACCELEROMETER && flushPending) {
+                flushPending = false;
+                TelemetryScheduler.getInstance().getExecutor().execute(sendTask);
+            }
+        }
+
+        /**
+         * @return False if the flush could not be requested.
          */
+        private boolean flush() {
+            flushPending = true;
+            if (!sensorManager.flush(this)) {
+                flushPending = false;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Task run every publish period in low power mode. Flushes the sensor FIFOs, after which
+     * the send task runs. A flush that did not complete within a period is given up on.
+     */
+    private class FlushTask implements Runnable {
         @Override
         public void run() {
-            Log.v(TAG, "SendTimerTask.run() entered");
+            BatchingListener batching = batchingListener;
+            if (batching == null) {
+                return;
+            }
+            if (flushPending) {
+                Log.w(TAG, "FlushTask.run() - flush did not complete");
+                flushPending = false;
+                sendTask.run();
+            } else if (!batching.flush()) {
+                sendTask.run();
+            }
+        }
+    }
+
+    /**
+     * Task for sending accel data, run by the TelemetryScheduler every publish period, or after
+     * each flush in low power mode. Runs one at a time.
+     */
+    private class SendTask implements Runnable {
+        private final float[] sample = new float[snapshot.size()];
+        private final float[] sampleG = new float[3];
+        private final float[] sampleO = new float[3];
+        private final double[] channels = new double[CHANNEL_COUNT];
+
+        /**
+         * Publish an accel event message.
+         */
+        @Override
+        public synchronized void run() {
+            Log.v(TAG, "SendTask.run() entered");
+
+            snapshot.read(sample);
+            System.arraycopy(sample, SNAPSHOT_G, sampleG, 0, 3);
+            System.arraycopy(sample, SNAPSHOT_O, sampleO, 0, 3);
+            float sampleYaw = sample[SNAPSHOT_YAW];
 
             double lon = 0.0;
             double lat = 0.0;
@@ -157,18 +633,38 @@ public class DeviceSensor implements SensorEventListener {
                 lon = app.getCurrentLocation().getLongitude();
                 lat = app.getCurrentLocation().getLatitude();
             }
-            String messageData = MessageFactory.getAccelMessage(G, O, yaw, lon, lat);
-            String topic;
-            if (app.getConnectionType() == Constants.ConnectionType.QUICKSTART) {
-                topic = TopicFactory.getEventTopic(Constants.STATUS_EVENT);
+            accelWindow.reset();
+            if (isBuffering()) {
+                accelRing.drain(accelWindow);
+            }
+            // in low power mode, each sample of the FIFO batch is published, not only the latest
+            boolean fifoBatch = !isCapturing() && batchingListener != null && accelWindow.getCount() > 0;
+            if (!highRate && !fifoBatch && deadbandEnabled && !hasChanged(sampleG, sampleO, sampleYaw, lon, lat)) {
+                Log.v(TAG, "SendTask.run() - within deadband");
+            } else if (app.getConnectionType() == Constants.ConnectionType.QUICKSTART) {
+                // QuickStart visualizes single JSON status samples, so these are never batched or encoded otherwise
+                MessageWriter writer = MessageFactory.writeAccelMessage(JsonWriter.get(), sampleG, sampleO, sampleYaw, lon, lat);
+                MqttHandler mqttHandler = MqttHandler.getInstance(context);
+                mqttHandler.publish(TopicFactory.getEventTopic(Constants.STATUS_EVENT, PayloadCodecs.JSON),
+                        writer.getBuffer(), 0, writer.getLength(), false, 0);
+            } else if (highRate) {
+                publishAccelWindow();
+            } else if (fifoBatch) {
+                batchAccelWindow(sampleO, sampleYaw, lon, lat);
             } else {
-                topic = TopicFactory.getEventTopic(Constants.ACCEL_EVENT);
+                PayloadCodec codec = PayloadCodecs.getEventCodec(Constants.ACCEL_EVENT);
+                MessageWriter writer = MessageFactory.writeAccelData(codec.getWriter(), sampleG, sampleO, sampleYaw, lon, lat);
+                TelemetryBatcher batcher = TelemetryBatcher.getInstance(context);
+                batcher.add(TopicFactory.getEventTopic(Constants.ACCEL_EVENT, codec), codec, writer);
+            }
+            if (app.getConnectionType() != Constants.ConnectionType.QUICKSTART) {
+                if (vibration) {
+                    publishVibration();
+                }
+                publishSources();
             }
 
-            MqttHandler mqttHandler = MqttHandler.getInstance(context);
-            mqttHandler.publish(topic, messageData, false, 0);
-
-            app.setAccelData(G);
+            app.setAccelData(sampleG);
 
             String runningActivity = app.getCurrentRunningActivity();
             if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
@@ -177,5 +673,88 @@ public class DeviceSensor implements SensorEventListener {
                 context.sendBroadcast(actionIntent);
             }
         }
+
+        /**
+         * @return True if the sample moved past the deadband, or the maximum silence elapsed.
+         */
+        private boolean hasChanged(float[] G, float[] O, float yaw, double lon, double lat) {
+            channels[CHANNEL_ACCEL] = G[0];
+            channels[CHANNEL_ACCEL + 1] = G[1];
+            channels[CHANNEL_ACCEL + 2] = G[2];
+            channels[CHANNEL_ORIENTATION] = O[2];
+            channels[CHANNEL_ORIENTATION + 1] = O[1];
+            channels[CHANNEL_ORIENTATION + 2] = yaw;
+            channels[CHANNEL_LOCATION] = lon;
+            channels[CHANNEL_LOCATION + 1] = lat;
+            return deadband.update(channels, SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * Publish the accelerometer samples captured since the previous period.
+         */
+        private void publishAccelWindow() {
+            if (accelWindow.getCount() == 0) {
+                return;
+            }
+            boolean raw = highRateMode == Constants.HighRateMode.RAW;
+            String event = raw ? Constants.ACCEL_RAW_EVENT : Constants.ACCEL_WINDOW_EVENT;
+            PayloadCodec codec = PayloadCodecs.getEventCodec(event);
+            MessageWriter writer = raw
+                    ? MessageFactory.writeAccelRawMessage(codec.getWriter(), accelWindow)
+                    : MessageFactory.writeAccelWindowMessage(codec.getWriter(), accelWindow);
+            MqttHandler mqttHandler = MqttHandler.getInstance(context);
+            mqttHandler.publish(TopicFactory.getEventTopic(event, codec),
+                    writer.getBuffer(), 0, writer.getLength(), false, 0);
+        }
+
+        /**
+         * Add each accelerometer sample of the FIFO batch to the accel event batches, with the
+         * latest orientation and location, as the FIFO does not buffer them per sample.
+         */
+        private void batchAccelWindow(float[] O, float yaw, double lon, double lat) {
+            PayloadCodec codec = PayloadCodecs.getEventCodec(Constants.ACCEL_EVENT);
+            String topic = TopicFactory.getEventTopic(Constants.ACCEL_EVENT, codec);
+            TelemetryBatcher batcher = TelemetryBatcher.getInstance(context);
+            for (int i = 0; i < accelWindow.getCount(); i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    sampleG[axis] = accelWindow.getValue(i, axis);
+                }
+                if (deadbandEnabled && !hasChanged(sampleG, O, yaw, lon, lat)) {
+                    continue;
+                }
+                MessageWriter writer = MessageFactory.writeAccelData(codec.getWriter(), sampleG, O, yaw, lon, lat);
+                batcher.add(topic, codec, writer);
+            }
+        }
+
+        /**
+         * Publish the latest sample of each enabled sensor source.
+         */
+        private void publishSources() {
+            TelemetryBatcher batcher = TelemetryBatcher.getInstance(context);
+            for (SensorSource source : sources.getEnabled()) {
+                if (!source.hasSample()) {
+                    continue;
+                }
+                PayloadCodec codec = PayloadCodecs.getEventCodec(source.getName());
+                MessageWriter writer = MessageFactory.writeSensorData(codec.getWriter(), source, source.read());
+                batcher.add(TopicFactory.getEventTopic(source.getName(), codec), codec, writer);
+            }
+        }
+
+        /**
+         * Publish the vibration features of the accelerometer samples captured since the previous period.
+         */
+        private void publishVibration() {
+            if (!vibrationAnalyzer.analyze(accelWindow)) {
+                Log.v(TAG, "SendTask.publishVibration() - too few samples");
+                return;
+            }
+            PayloadCodec codec = PayloadCodecs.getEventCodec(Constants.VIBRATION_EVENT);
+            MessageWriter writer = MessageFactory.writeVibrationMessage(codec.getWriter(), vibrationAnalyzer);
+            MqttHandler mqttHandler = MqttHandler.getInstance(context);
+            mqttHandler.publish(TopicFactory.getEventTopic(Constants.VIBRATION_EVENT, codec),
+                    writer.getBuffer(), 0, writer.getLength(), false, 0);
+        }
     }
 }
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Radix-2 FFT of real, Hann windowed input. The N real samples are packed into N/2 complex
+ * values, transformed in place, and separated into the N/2 + 1 bins of the real spectrum.
+ * Tables and work buffers are allocated once for the size, so transforms do not allocate.
+ * An instance is not thread safe.
+ */
+public class Fft {
+
+    private final int size;
+    private final int half;
+    private final int[] bitReverse;
+    // e^(-2 pi i k / size) for k < size / 2
+    private final double[] cos;
+    private final double[] sin;
+    private final double[] window;
+    private final double windowSum;
+    private final double windowSquareSum;
+    private final double[] re;
+    private final double[] im;
+
+    /**
+     * @param size The number of samples per transform, a power of two of at least 4.
+     */
+    public Fft(int size) {
+        if (size < 4 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[half];
+        sin = new double[half];
+        for (int k = 0; k < half; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / size);
+            sin[k] = -Math.sin(2 * Math.PI * k / size);
+        }
+        window = new double[size];
+        double sum = 0;
+        double squareSum = 0;
+        for (int i = 0; i < size; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+            sum += window[i];
+            squareSum += window[i] * window[i];
+        }
+        windowSum = sum;
+        windowSquareSum = squareSum;
+        re = new double[half];
+        im = new double[half];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The sum of the window coefficients, to scale bin magnitudes to amplitudes.
+     */
+    public double getWindowSum() {
+        return windowSum;
+    }
+
+    /**
+     * @return The sum of the squared window coefficients, to scale power to mean square.
+     */
+    public double getWindowSquareSum() {
+        return windowSquareSum;
+    }
+
+    /**
+     * Compute the power spectrum |X[k]|^2 of the windowed input.
+     *
+     * @param input  The samples, read from offset to offset + size.
+     * @param offset The offset of the first sample.
+     * @param power  Array receiving size / 2 + 1 bins, from 0 to the Nyquist frequency.
+     */
+    public void powerSpectrum(double[] input, int offset, double[] power) {
+        // pack even samples into the real and odd samples into the imaginary part, in bit reversed order
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            re[j] = input[offset + 2 * i] * window[2 * i];
+            im[j] = input[offset + 2 * i + 1] * window[2 * i + 1];
+        }
+
+        // iterative Cooley-Tukey butterflies of the half size transform; the twiddles of
+        // the half size are every other twiddle of the full size
+        for (int length = 2; length <= half; length <<= 1) {
+            int step = 2 * half / length;
+            int span = length >> 1;
+            for (int start = 0; start < half; start += length) {
+                for (int k = 0; k < span; k++) {
+                    double wr = cos[k * step];
+                    double wi = sin[k * step];
+                    int a = start + k;
+                    int b = a + span;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+
+        // separate the spectra of the even and odd samples and combine them
+        power[0] = (re[0] + im[0]) * (re[0] + im[0]);
+        power[half] = (re[0] - im[0]) * (re[0] - im[0]);
+        for (int k = 1; k < half; k++) {
+            double zr = re[k];
+            double zi = im[k];
+            double cr = re[half - k];
+            double ci = -im[half - k];
+            double er = (zr + cr) / 2;
+            double ei = (zi + ci) / 2;
+            // (z - conj) / 2i
+            double or = (zi - ci) / 2;
+            double oi = -(zr - cr) / 2;
+            double xr = er + cos[k] * or - sin[k] * oi;
+            double xi = ei + cos[k] * oi + sin[k] * or;
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A group of float values written by a single thread and read consistently by any number
+ * of other threads, without locks or allocation. This is a sequence lock: the writer makes
+ * the sequence odd while it updates the values and even again when done, and a reader
+ * retries its copy until it saw the same even sequence before and after.
+ *
+ * Values are stored as their int bits in an AtomicIntegerArray, so that the reads and
+ * writes of the values are ordered with those of the sequence.
+ */
+public class FloatSnapshot {
+
+    private final AtomicIntegerArray values;
+    private volatile int sequence;
+
+    /**
+     * @param size The number of values in the snapshot.
+     */
+    public FloatSnapshot(int size) {
+        values = new AtomicIntegerArray(size);
+    }
+
+    public int size() {
+        return values.length();
+    }
+
+    /**
+     * Start updating the values. Called by the writer only, and followed by endWrite().
+     */
+    public void beginWrite() {
+        sequence++;
+    }
+
+    /**
+     * @param index The index of the value.
+     * @param value The new value.
+     */
+    public void set(int index, float value) {
+        values.set(index, Float.floatToRawIntBits(value));
+    }
+
+    /**
+     * Copy values into the snapshot.
+     *
+     * @param index  The index of the first value to set.
+     * @param source The values to copy.
+     * @param offset The offset of the first value in the source.
+     * @param count  The number of values to copy.
+     */
+    public void set(int index, float[] source, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            values.set(index + i, Float.floatToRawIntBits(source[offset + i]));
+        }
+    }
+
+    /**
+     * Publish the updated values to readers.
+     */
+    public void endWrite() {
+        sequence++;
+    }
+
+    /**
+     * Replace all values in a single update. Called by the writer only.
+     *
+     * @param source The new values.
+     */
+    public void write(float[] source) {
+        beginWrite();
+        set(0, source, 0, values.length());
+        endWrite();
+    }
+
+    /**
+     * Copy a consistent set of values.
+     *
+     * @param destination Array to copy the values into, at least size() long.
+     */
+    public void read(float[] destination) {
+        int length = values.length();
+        while (true) {
+            int before = sequence;
+            if ((before & 1) == 0) {
+                for (int i = 0; i < length; i++) {
+                    destination[i] = Float.intBitsToFloat(values.get(i));
+                }
+                if (sequence == before) {
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -17,6 +17,8 @@ package com.ibm.demo.IoTStarter.utils;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 public class IoTProfile {
@@ -24,11 +26,14 @@ public class IoTProfile {
     private String organization;
     private String deviceID;
     private String authorizationToken;
+    // sampling period in microseconds of each enabled sensor source, by name
+    private Map<String, Integer> sensors = new LinkedHashMap<String, Integer>();
 
     private static final String NAME_PREFIX = "name:";
     private static final String ORG_PREFIX = "org:";
     private static final String DEVICE_ID_PREFIX = "deviceId:";
     private static final String AUTH_TOKEN_PREFIX = "authToken:";
+    private static final String SENSORS_PREFIX = "sensors:";
 
     public IoTProfile(String profileName, String organization, String deviceID, String authorizationToken) {
         this.profileName = profileName;
@@ -37,6 +42,12 @@ public class IoTProfile {
         this.authorizationToken = authorizationToken;
     }
 
+    public IoTProfile(String profileName, String organization, String deviceID, String authorizationToken,
+                      Map<String, Integer> sensors) {
+        this(profileName, organization, deviceID, authorizationToken);
+        this.sensors.putAll(sensors);
+    }
+
     public IoTProfile(Set<String> profileSet) {
         Iterator<String> iter = profileSet.iterator();
         while (iter.hasNext()) {
@@ -49,6 +60,8 @@ public class IoTProfile {
                 this.deviceID = value.substring(DEVICE_ID_PREFIX.length());
             } else if (value.contains(AUTH_TOKEN_PREFIX)) {
                 this.authorizationToken = value.substring(AUTH_TOKEN_PREFIX.length());
+            } else if (value.startsWith(SENSORS_PREFIX)) {
+                parseSensors(value.substring(SENSORS_PREFIX.length()));
             }
         }
     }
@@ -60,6 +73,9 @@ public class IoTProfile {
         profileSet.add(ORG_PREFIX + this.organization);
         profileSet.add(DEVICE_ID_PREFIX + this.deviceID);
         profileSet.add(AUTH_TOKEN_PREFIX + this.authorizationToken);
+        if (!sensors.isEmpty()) {
+            profileSet.add(SENSORS_PREFIX + formatSensors());
+        }
 
         return profileSet;
     }
@@ -79,4 +95,39 @@ public class IoTProfile {
     public String getAuthorizationToken() {
         return authorizationToken;
     }
+
+    /**
+     * @return The sampling period in microseconds of each enabled sensor source, by name.
+     */
+    public Map<String, Integer> getSensors() {
+        return sensors;
+    }
+
+    /**
+     * Parse sensors stored as name=period pairs, e.g. "gyroscope=20000,pressure=1000000".
+     */
+    private void parseSensors(String value) {
+        for (String entry : value.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                sensors.put(entry.substring(0, separator), Integer.parseInt(entry.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                // skip the malformed entry
+            }
+        }
+    }
+
+    private String formatSensors() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : sensors.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
 }
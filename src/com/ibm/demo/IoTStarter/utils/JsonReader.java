@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Pull reader for JSON payloads that works directly on the received UTF-8 bytes. Numbers
+ * are parsed from the payload without creating strings, and strings are only decoded when
+ * getString() is called.
+ */
+public class JsonReader implements PayloadReader {
+
+    private final static int MAX_DEPTH = 16;
+    private final static int OBJECT = 1;
+    private final static int ARRAY = 2;
+
+    private byte[] buffer;
+    private int pos;
+    private int end;
+
+    // container stack: type, whether no member was read yet and whether a name was just read
+    private final int[] containers = new int[MAX_DEPTH];
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    private final boolean[] afterName = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean topLevelRead;
+
+    // the current NAME, STRING or NUMBER token is the span [tokenOffset, tokenOffset + tokenLength)
+    private int tokenOffset;
+    private int tokenLength;
+    private boolean escaped;
+    private boolean bool;
+
+    @Override
+    public void reset(byte[] payload, int offset, int length) {
+        buffer = payload;
+        pos = offset;
+        end = offset + length;
+        depth = 0;
+        topLevelRead = false;
+    }
+
+    @Override
+    public int next() throws JSONException {
+        skipWhitespace();
+        if (depth == 0) {
+            if (topLevelRead) {
+                if (pos < end) {
+                    throw new JSONException("Unexpected data after JSON value");
+                }
+                return END_DOCUMENT;
+            }
+            topLevelRead = true;
+            return readValue();
+        }
+
+        if (containers[depth] == OBJECT) {
+            if (afterName[depth]) {
+                afterName[depth] = false;
+                return readValue();
+            }
+            if (peek() == '}') {
+                pos++;
+                depth--;
+                return END_OBJECT;
+            }
+            separate();
+            if (peek() != '"') {
+                throw new JSONException("Expected a member name at " + pos);
+            }
+            pos++;
+            readString();
+            skipWhitespace();
+            if (peek() != ':') {
+                throw new JSONException("Expected ':' at " + pos);
+            }
+            pos++;
+            afterName[depth] = true;
+            return NAME;
+        }
+
+        if (peek() == ']') {
+            pos++;
+            depth--;
+            return END_ARRAY;
+        }
+        separate();
+        return readValue();
+    }
+
+    @Override
+    public void skipValue() throws JSONException {
+        int skipDepth = 0;
+        do {
+            int token = next();
+            if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+                skipDepth++;
+            } else if (token == END_OBJECT || token == END_ARRAY) {
+                skipDepth--;
+            } else if (token == END_DOCUMENT) {
+                return;
+            }
+        } while (skipDepth > 0);
+    }
+
+    @Override
+    public boolean nameEquals(byte[] name) {
+        if (escaped) {
+            return getString().equals(new String(name));
+        }
+        if (name.length != tokenLength) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (buffer[tokenOffset + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getString() {
+        String raw;
+        try {
+            raw = new String(buffer, tokenOffset, tokenLength, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return escaped ? unescape(raw) : raw;
+    }
+
+    @Override
+    public double getDouble() throws JSONException {
+        return DecimalParser.parse(buffer, tokenOffset, tokenLength);
+    }
+
+    @Override
+    public boolean getBoolean() {
+        return bool;
+    }
+
+    private int readValue() throws JSONException {
+        if (pos >= end) {
+            throw new JSONException("Unexpected end of JSON payload");
+        }
+        escaped = false;
+        byte c = buffer[pos];
+        switch (c) {
+            case '{':
+                pos++;
+                push(OBJECT);
+                return BEGIN_OBJECT;
+            case '[':
+                pos++;
+                push(ARRAY);
+                return BEGIN_ARRAY;
+            case '"':
+                pos++;
+                readString();
+                return STRING;
+            case 't':
+                readLiteral("true");
+                bool = true;
+                return BOOLEAN;
+            case 'f':
+                readLiteral("false");
+                bool = false;
+                return BOOLEAN;
+            case 'n':
+                readLiteral("null");
+                return NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    tokenOffset = pos;
+                    while (pos < end && isNumberChar(buffer[pos])) {
+                        pos++;
+                    }
+                    tokenLength = pos - tokenOffset;
+                    return NUMBER;
+                }
+                throw new JSONException("Unexpected character '" + (char) c + "' at " + pos);
+        }
+    }
+
+    /**
+     * Find the end of a string whose opening quote was consumed. Escapes are only decoded
+     * when the string is requested, but unicode escapes are validated here.
+     */
+    private void readString() throws JSONException {
+        escaped = false;
+        tokenOffset = pos;
+        while (pos < end) {
+            byte c = buffer[pos];
+            if (c == '"') {
+                tokenLength = pos - tokenOffset;
+                pos++;
+                return;
+            }
+            if (c == '\\') {
+                escaped = true;
+                pos++;
+                if (pos < end && buffer[pos] == 'u') {
+                    if (pos + 4 >= end) {
+                        throw new JSONException("Unterminated unicode escape at " + pos);
+                    }
+                    for (int i = 1; i <= 4; i++) {
+                        if (hexValue(buffer[pos + i]) < 0) {
+                            throw new JSONException("Illegal unicode escape at " + pos);
+                        }
+                    }
+                    pos += 4;
+                }
+            }
+            pos++;
+        }
+        throw new JSONException("Unterminated JSON string");
+    }
+
+    private void readLiteral(String literal) throws JSONException {
+        int length = literal.length();
+        if (end - pos < length) {
+            throw new JSONException("Unexpected end of JSON payload");
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[pos + i] != literal.charAt(i)) {
+                throw new JSONException("Unexpected character at " + (pos + i));
+            }
+        }
+        pos += length;
+    }
+
+    /**
+     * Consume the comma between members, unless this is the first member of the container.
+     */
+    private void separate() throws JSONException {
+        if (first[depth]) {
+            first[depth] = false;
+            return;
+        }
+        if (peek() != ',') {
+            throw new JSONException("Expected ',' at " + pos);
+        }
+        pos++;
+        skipWhitespace();
+    }
+
+    private void push(int type) throws JSONException {
+        if (depth + 1 >= MAX_DEPTH) {
+            throw new JSONException("JSON nesting too deep");
+        }
+        depth++;
+        containers[depth] = type;
+        first[depth] = true;
+        afterName[depth] = false;
+    }
+
+    private int peek() throws JSONException {
+        if (pos >= end) {
+            throw new JSONException("Unexpected end of JSON payload");
+        }
+        return buffer[pos];
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = buffer[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean isNumberChar(byte c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Decode the escapes of a string, whose unicode escapes were validated by readString().
+     */
+    private static String unescape(String raw) {
+        StringBuilder result = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= raw.length()) {
+                result.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'n':
+                    result.append('\n');
+                    break;
+                case 'r':
+                    result.append('\r');
+                    break;
+                case 't':
+                    result.append('\t');
+                    break;
+                case 'b':
+                    result.append('\b');
+                    break;
+                case 'f':
+                    result.append('\f');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int j = 1; j <= 4; j++) {
+                        value = (value << 4) | hexValue(raw.charAt(i + j));
+                    }
+                    result.append((char) value);
+                    i += 4;
+                    break;
+                default:
+                    result.append(c);
+                    break;
+            }
+        }
+        return result.toString();
+    }
+}
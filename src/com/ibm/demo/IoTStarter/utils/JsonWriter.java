@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer that serializes directly into a reusable UTF-8 byte buffer.
+ * Commas between members are inserted automatically. Once the buffer has grown to fit
+ * the largest message, writing a message does not allocate.
+ *
+ * A writer is not thread safe. Use get() to obtain the writer confined to the calling thread.
+ */
+public class JsonWriter implements MessageWriter {
+
+    private final static int MAX_DEPTH = 16;
+    // significant digits that always identify a float or a double
+    private final static int FLOAT_DIGITS = 9;
+    private final static int DOUBLE_DIGITS = 17;
+    // decimal exponents of the first digit written without an exponent, as JavaScript does
+    private final static int MIN_FIXED_EXPONENT = -7;
+    private final static int MAX_FIXED_EXPONENT = 21;
+    // 2^27 + 1, splits a double into two halves whose products are exact
+    private final static double SPLITTER = 134217729.0;
+    private final static double TWO_53 = 9007199254740992.0;
+    private final static double BOUND_MARGIN = 1 - 1e-9;
+    private final static byte[] NULL = {'n', 'u', 'l', 'l'};
+    private final static byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private final static byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private final static byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    // powers of ten that are exact doubles
+    private final static double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final static ThreadLocal<JsonWriter> LOCAL = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+    };
+
+    private byte[] buffer;
+    private int length;
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    // scratch for formatting decimals
+    private final byte[] digits = new byte[20];
+    private double productHigh;
+    private double productLow;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    public JsonWriter(int capacity) {
+        buffer = new byte[capacity];
+        reset();
+    }
+
+    /**
+     * @return The writer confined to the calling thread, emptied and ready for a new message.
+     */
+    public static JsonWriter get() {
+        return LOCAL.get().reset();
+    }
+
+    @Override
+    public JsonWriter reset() {
+        length = 0;
+        depth = 0;
+        first[0] = true;
+        afterName = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        separate();
+        push();
+        write('{');
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        separate();
+        push();
+        write('[');
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        separate();
+        write(value ? TRUE : FALSE, 0, value ? TRUE.length : FALSE.length);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        separate();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Write a float value with the fewest digits that read back as the same float, as
+     * org.json did with Float.toString(). NaN and infinite values are written as null.
+     */
+    @Override
+    public JsonWriter value(float value) {
+        separate();
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            write(NULL, 0, NULL.length);
+            return this;
+        }
+        float magnitude = Math.abs(value);
+        if (magnitude == 0) {
+            write('0');
+            return this;
+        }
+        if (value < 0) {
+            write('-');
+        }
+        // the float and the bounds of the values that round to it are exact doubles
+        double lowerGap = ((double) magnitude - Math.nextAfter(magnitude, 0.0)) / 2;
+        double upperGap = ((double) Math.nextUp(magnitude) - magnitude) / 2;
+        if (!writeShortest(magnitude, lowerGap, upperGap, FLOAT_DIGITS)) {
+            // beyond the exact powers of ten, rare enough to accept the allocation
+            writeText(Float.toString(magnitude));
+        }
+        return this;
+    }
+
+    /**
+     * Write a double value with the fewest digits that read back as the same double, as
+     * org.json did with Double.toString(). NaN and infinite values are written as null.
+     */
+    @Override
+    public JsonWriter value(double value) {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL, 0, NULL.length);
+            return this;
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude == 0) {
+            write('0');
+            return this;
+        }
+        if (value < 0) {
+            write('-');
+        }
+        double lowerGap = (magnitude - Math.nextAfter(magnitude, 0.0)) / 2;
+        double upperGap = (Math.nextUp(magnitude) - magnitude) / 2;
+        if (!writeShortest(magnitude, lowerGap, upperGap, DOUBLE_DIGITS)) {
+            // beyond the exact powers of ten, rare enough to accept the allocation
+            writeText(Double.toString(magnitude));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        separate();
+        write(NULL, 0, NULL.length);
+        return this;
+    }
+
+    @Override
+    public JsonWriter rawValue(byte[] value, int offset, int count) {
+        separate();
+        write(value, offset, count);
+        return this;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer, 0, length, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void push() {
+        if (depth + 1 >= MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting too deep");
+        }
+        first[++depth] = true;
+    }
+
+    /**
+     * Insert a comma if the next value is not the first of its container.
+     */
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+        } else if (first[depth]) {
+            first[depth] = false;
+        } else {
+            write(',');
+        }
+    }
+
+    private void writeString(String value) {
+        write('"');
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            } else if (c < 0x20) {
+                write('\\');
+                switch (c) {
+                    case '\n':
+                        write('n');
+                        break;
+                    case '\r':
+                        write('r');
+                        break;
+                    case '\t':
+                        write('t');
+                        break;
+                    case '\b':
+                        write('b');
+                        break;
+                    case '\f':
+                        write('f');
+                        break;
+                    default:
+                        write('u');
+                        write('0');
+                        write('0');
+                        write(HEX[c >> 4]);
+                        write(HEX[c & 0xf]);
+                        break;
+                }
+            } else if (c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                write(0xc0 | (c >> 6));
+                write(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                write(0xf0 | (codePoint >> 18));
+                write(0x80 | ((codePoint >> 12) & 0x3f));
+                write(0x80 | ((codePoint >> 6) & 0x3f));
+                write(0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, not representable in UTF-8
+                write('?');
+            } else {
+                write(0xe0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3f));
+                write(0x80 | (c & 0x3f));
+            }
+        }
+        write('"');
+    }
+
+    /**
+     * Write a positive value with the fewest significant digits whose decimal lies strictly
+     * within the values that round to it, lowerGap below and upperGap above. The candidates
+     * and their distance to the value are computed exactly with products of two doubles,
+     * which needs the powers of ten involved to be exact.
+     *
+     * @return False if the value needs a power of ten beyond the exact ones.
+     */
+    private boolean writeShortest(double value, double lowerGap, double upperGap, int maxDigits) {
+        int exponent = (int) Math.floor(Math.log10(value));
+        // log10 may be off by one next to powers of ten
+        if (exponent >= 0 && exponent < POW10.length - 1) {
+            if (value < POW10[exponent]) {
+                exponent--;
+            } else if (value >= POW10[exponent + 1]) {
+                exponent++;
+            }
+        }
+        for (int precision = 1; precision <= maxDigits; precision++) {
+            // the candidate is scaled / 10^shift
+            int shift = precision - 1 - exponent;
+            if (shift >= POW10.length || -shift >= POW10.length) {
+                return false;
+            }
+            long scaled;
+            double distance;
+            double below;
+            double above;
+            if (shift >= 0) {
+                multiply(value, POW10[shift]);
+                scaled = roundSum(productHigh, productLow);
+                // scaled - value * 10^shift, exactly up to the rounding of the low part
+                distance = (productHigh >= TWO_53 ? (double) (scaled - (long) productHigh) : scaled - productHigh)
+                        - productLow;
+                // the gaps are powers of two, so these products are exact
+                below = lowerGap * POW10[shift];
+                above = upperGap * POW10[shift];
+            } else {
+                scaled = Math.round(value / POW10[-shift]);
+                if (scaled >= TWO_53) {
+                    return false;
+                }
+                multiply(scaled, POW10[-shift]);
+                distance = (productHigh - value) + productLow;
+                below = lowerGap;
+                above = upperGap;
+            }
+            // a candidate on a bound could read back as the neighbour, so a margin keeps it out
+            if (scaled > 0 && distance > -below * BOUND_MARGIN && distance < above * BOUND_MARGIN) {
+                writeDigits(scaled, shift);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute a * b exactly as productHigh + productLow (Dekker's product).
+     */
+    private void multiply(double a, double b) {
+        double product = a * b;
+        double c = SPLITTER * a;
+        double aHigh = c - (c - a);
+        double aLow = a - aHigh;
+        c = SPLITTER * b;
+        double bHigh = c - (c - b);
+        double bLow = b - bHigh;
+        productHigh = product;
+        productLow = ((aHigh * bHigh - product) + aHigh * bLow + aLow * bHigh) + aLow * bLow;
+    }
+
+    /**
+     * @return The integer nearest to high + low.
+     */
+    private static long roundSum(double high, double low) {
+        long integer = (long) Math.floor(high);
+        return integer + (long) Math.floor((high - integer) + low + 0.5);
+    }
+
+    /**
+     * Write the decimal scaled / 10^shift, in fixed notation if its exponent is within the
+     * range JavaScript uses, otherwise in scientific notation.
+     */
+    private void writeDigits(long scaled, int shift) {
+        while (scaled % 10 == 0) {
+            scaled /= 10;
+            shift--;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + (scaled % 10));
+            scaled /= 10;
+        } while (scaled != 0);
+        // digits were stored least significant first
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            byte swap = digits[i];
+            digits[i] = digits[j];
+            digits[j] = swap;
+        }
+        int exponent = count - 1 - shift;
+        if (exponent < MIN_FIXED_EXPONENT || exponent >= MAX_FIXED_EXPONENT) {
+            write(digits[0]);
+            if (count > 1) {
+                write('.');
+                write(digits, 1, count - 1);
+            }
+            write('e');
+            writeLong(exponent);
+        } else if (exponent < 0) {
+            write('0');
+            write('.');
+            for (int i = -1; i > exponent; i--) {
+                write('0');
+            }
+            write(digits, 0, count);
+        } else if (count <= exponent + 1) {
+            write(digits, 0, count);
+            for (int i = count; i <= exponent; i++) {
+                write('0');
+            }
+        } else {
+            write(digits, 0, exponent + 1);
+            write('.');
+            write(digits, exponent + 1, count - exponent - 1);
+        }
+    }
+
+    private void writeText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            write(text.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            String text = Long.toString(value);
+            for (int i = 0; i < text.length(); i++) {
+                write(text.charAt(i));
+            }
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        ensureCapacity(19);
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // digits were written least significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+    }
+
+    private void write(int b) {
+        if (length == buffer.length) {
+            ensureCapacity(1);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void write(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
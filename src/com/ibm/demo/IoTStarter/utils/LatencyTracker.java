@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the latency from publishing a message to its acknowledgement, i.e. until it was
+ * written to the network for QoS 0, acknowledged for QoS 1, or completed for QoS 2.
+ * Latencies are kept in a LatencyHistogram per topic and QoS, in an overall histogram of all
+ * latencies, and in an interval histogram of all latencies since the last periodic report.
+ */
+public class LatencyTracker {
+    private final static String TAG = LatencyTracker.class.getName();
+
+    private final static int QOS_LEVELS = 3;
+
+    private static LatencyTracker instance;
+    private final ConcurrentHashMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<String, LatencyHistogram[]>();
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> interval = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+
+    private LatencyTracker() {
+    }
+
+    /**
+     * @return The LatencyTracker object for the application.
+     */
+    public static synchronized LatencyTracker getInstance() {
+        if (instance == null) {
+            instance = new LatencyTracker();
+        }
+        return instance;
+    }
+
+    /**
+     * Record the latency of a published message.
+     *
+     * @param topic      The topic the message was published to.
+     * @param qos        The quality of service of the message.
+     * @param startNanos The System.nanoTime() at which the message was published.
+     */
+    public void record(String topic, int qos, long startNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        getHistogram(topic, qos).record(micros);
+        overall.record(micros);
+        interval.get().record(micros);
+    }
+
+    /**
+     * Start a new interval, so that latencies of successive intervals are available without
+     * allocating or resetting the histograms of the topics.
+     *
+     * @param next An empty histogram to record the next interval into.
+     * @return The histogram of the interval that ended, which the caller may reuse once read.
+     */
+    public LatencyHistogram swapInterval(LatencyHistogram next) {
+        return interval.getAndSet(next);
+    }
+
+    /**
+     * @param topic A topic messages were published to.
+     * @param qos   The quality of service of the messages.
+     * @return The latencies of the messages published to the topic with the QoS.
+     */
+    public LatencyHistogram getHistogram(String topic, int qos) {
+        LatencyHistogram[] levels = histograms.get(topic);
+        if (levels == null) {
+            LatencyHistogram[] created = new LatencyHistogram[QOS_LEVELS];
+            for (int i = 0; i < QOS_LEVELS; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            levels = histograms.putIfAbsent(topic, created);
+            if (levels == null) {
+                levels = created;
+            }
+        }
+        return levels[qos];
+    }
+
+    /**
+     * @return The topics that latencies were recorded for.
+     */
+    public Set<String> getTopics() {
+        return histograms.keySet();
+    }
+
+    /**
+     * @return The histogram of the latencies of all topics and QoS levels, recorded along with
+     * those of the topics, so that reading it neither allocates nor merges histograms.
+     */
+    public LatencyHistogram getOverall() {
+        return overall;
+    }
+
+    /**
+     * Discard all recorded latencies.
+     */
+    public void reset() {
+        for (LatencyHistogram[] levels : histograms.values()) {
+            for (LatencyHistogram histogram : levels) {
+                histogram.reset();
+            }
+        }
+        overall.reset();
+    }
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the publish pipeline at controlled rates to find its maximum sustainable rate.
+ * Samples from a SyntheticSource are built into accel event messages by MessageFactory and
+ * handed to a MessagePublisher, normally the MqttHandler, at the target rate of each step.
+ * A step is saturated when the publisher cannot keep up with the target rate, which shows
+ * as the achieved rate falling behind and as the time spent in publish calls.
+ *
+ * A publisher that limits its rate, such as the MqttHandler, takes messages faster than it
+ * sends them. If it implements PublishCounts, the achieved rate is that of the messages of the
+ * topic it sent during the step, and the messages it coalesced or dropped are reported. The
+ * rate limits of the MqttHandler stay in place, so a ramp with the default limits finds the
+ * limit of the topic. To measure the pipeline itself, lift them first with the setGlobalRate()
+ * and setTopicRate() of its PublishLimiter.
+ *
+ * Runs on the calling thread and does not use any Android API, so that the pipeline can be
+ * driven from JVM tests with a publisher that does not need a broker.
+ */
+public class LoadGenerator {
+
+    // a step is saturated below this fraction of its target rate
+    private final static double SATURATION = 0.95;
+
+    private final SyntheticSource source;
+    private final MessagePublisher publisher;
+    private final String topic;
+    private final PayloadCodec codec;
+    private final int qos;
+    private final float[] values = new float[3];
+    private final float[] orientation = new float[3];
+
+    /**
+     * @param source    The source of accelerometer samples, with 3 axes.
+     * @param publisher The publisher the messages are handed to.
+     * @param topic     The topic of the messages.
+     * @param codec     The payload format of the messages.
+     * @param qos       The quality of service of the messages.
+     */
+    public LoadGenerator(SyntheticSource source, MessagePublisher publisher, String topic, PayloadCodec codec, int qos) {
+        this.source = source;
+        this.publisher = publisher;
+        this.topic = topic;
+        this.codec = codec;
+        this.qos = qos;
+    }
+
+    /**
+     * Publish at a target rate for a duration.
+     *
+     * @param rate     The target number of messages per second.
+     * @param duration The duration of the step, in milliseconds.
+     * @return The result of the step.
+     */
+    public Step runStep(double rate, long duration) {
+        LatencyHistogram publishTime = new LatencyHistogram();
+        PublishCounts counts = publisher instanceof PublishCounts ? (PublishCounts) publisher : null;
+        long sentBefore = counts != null ? counts.getSentCount(topic) : 0;
+        long coalescedBefore = counts != null ? counts.getCoalescedCount(topic) : 0;
+        long droppedBefore = counts != null ? counts.getDroppedCount(topic) : 0;
+        double period = 1e9 / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        long published = 0;
+        long maxLag = 0;
+        long now = start;
+        while (now < end) {
+            long due = start + (long) (published * period);
+            if (due > now) {
+                LockSupport.parkNanos(Math.min(due, end) - now);
+                now = System.nanoTime();
+                continue;
+            }
+            maxLag = Math.max(maxLag, now - due);
+            source.next(values);
+            MessageWriter writer = MessageFactory.writeAccelMessage(codec.getWriter(), values, orientation, 0, 0, 0);
+            long before = System.nanoTime();
+            publisher.publish(topic, writer.getBuffer(), 0, writer.getLength(), false, qos);
+            now = System.nanoTime();
+            publishTime.record(TimeUnit.NANOSECONDS.toMicros(now - before));
+            published++;
+        }
+        long sent = published;
+        long coalesced = 0;
+        long dropped = 0;
+        if (counts != null) {
+            sent = counts.getSentCount(topic) - sentBefore;
+            coalesced = counts.getCoalescedCount(topic) - coalescedBefore;
+            dropped = counts.getDroppedCount(topic) - droppedBefore;
+        }
+        double achieved = sent * 1e9 / (now - start);
+        return new Step(rate, achieved, published, sent, coalesced, dropped, TimeUnit.NANOSECONDS.toMicros(maxLag), publishTime);
+    }
+
+    /**
+     * Run steps of increasing rate until a step is saturated or the maximum rate is reached.
+     *
+     * @param startRate The rate of the first step, in messages per second.
+     * @param maxRate   The highest rate to try.
+     * @param factor    The factor by which the rate increases from one step to the next.
+     * @param duration  The duration of each step, in milliseconds.
+     * @return The results of the steps, the last one being saturated unless the maximum rate was sustained.
+     */
+    public List<Step> ramp(double startRate, double maxRate, double factor, long duration) {
+        if (factor <= 1) {
+            throw new IllegalArgumentException("Factor must be greater than 1: " + factor);
+        }
+        List<Step> steps = new ArrayList<Step>();
+        for (double rate = startRate; rate <= maxRate; rate *= factor) {
+            Step step = runStep(rate, duration);
+            steps.add(step);
+            if (step.isSaturated()) {
+                break;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * The result of publishing at a target rate.
+     */
+    public static class Step {
+        private final double targetRate;
+        private final double achievedRate;
+        private final long published;
+        private final long sent;
+        private final long coalesced;
+        private final long dropped;
+        private final long maxLag;
+        private final LatencyHistogram publishTime;
+
+        Step(double targetRate, double achievedRate, long published, long sent, long coalesced, long dropped,
+             long maxLag, LatencyHistogram publishTime) {
+            this.targetRate = targetRate;
+            this.achievedRate = achievedRate;
+            this.published = published;
+            this.sent = sent;
+            this.coalesced = coalesced;
+            this.dropped = dropped;
+            this.maxLag = maxLag;
+            this.publishTime = publishTime;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        /**
+         * @return The rate of the messages sent, or of the publish calls if the publisher does not count them.
+         */
+        public double getAchievedRate() {
+            return achievedRate;
+        }
+
+        /**
+         * @return The number of publish calls.
+         */
+        public long getPublishedCount() {
+            return published;
+        }
+
+        /**
+         * @return The number of messages the publisher sent during the step.
+         */
+        public long getSentCount() {
+            return sent;
+        }
+
+        public long getCoalescedCount() {
+            return coalesced;
+        }
+
+        public long getDroppedCount() {
+            return dropped;
+        }
+
+        /**
+         * @return The largest delay of a message behind its due time, in microseconds.
+         */
+        public long getMaxLag() {
+            return maxLag;
+        }
+
+        /**
+         * @return The time spent in each publish call, in microseconds.
+         */
+        public LatencyHistogram getPublishTime() {
+            return publishTime;
+        }
+
+        public boolean isSaturated() {
+            return achievedRate < targetRate * SATURATION;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("target %.0f/s achieved %.0f/s coalesced %d dropped %d publish p50/p99 %d/%d us max lag %d us",
+                    targetRate, achievedRate, coalesced, dropped, publishTime.getPercentile(50), publishTime.getPercentile(99), maxLag);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal in-process MQTT 3.1.1 broker listening on the loopback interface, so that the
+ * connection path of the application can be measured without a cloud account.
+ *
+ * Connections are accepted without authentication. Published messages are acknowledged at
+ * their QoS (PUBACK, or PUBREC and PUBCOMP) and counted per topic, and are delivered to
+ * matching subscriptions at QoS 0, as are messages published by the broker itself with
+ * publish(). Sessions, retained messages and wills are not supported.
+ *
+ * Does not use any Android API, so that it can also run on a plain JVM.
+ */
+public class LocalBroker {
+
+    private final static int CONNECT = 1;
+    private final static int CONNACK = 2;
+    private final static int PUBLISH = 3;
+    private final static int PUBACK = 4;
+    private final static int PUBREC = 5;
+    private final static int PUBREL = 6;
+    private final static int PUBCOMP = 7;
+    private final static int SUBSCRIBE = 8;
+    private final static int SUBACK = 9;
+    private final static int UNSUBSCRIBE = 10;
+    private final static int UNSUBACK = 11;
+    private final static int PINGREQ = 12;
+    private final static int PINGRESP = 13;
+    private final static int DISCONNECT = 14;
+
+    private final int port;
+    private ServerSocket serverSocket;
+    private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+    private final ConcurrentHashMap<String, AtomicLong> received = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong receivedTotal = new AtomicLong();
+
+    /**
+     * @param port The port to listen on, or 0 for any free port.
+     */
+    public LocalBroker(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Start accepting connections on a daemon thread.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(port, 8, InetAddress.getByName("127.0.0.1"));
+        final ServerSocket server = serverSocket;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        Connection connection = new Connection(server.accept());
+                        connections.add(connection);
+                        connection.start();
+                    } catch (IOException e) {
+                        // the server socket was closed
+                    }
+                }
+            }
+        }, "LocalBroker-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Close the server socket and all connections.
+     */
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        closeQuietly(serverSocket);
+        serverSocket = null;
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return The host clients connect to.
+     */
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    /**
+     * @return The port the broker listens on, once started.
+     */
+    public synchronized int getPort() {
+        return serverSocket == null ? port : serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The number of clients currently connected.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return The number of subscriptions of all connected clients.
+     */
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Connection connection : connections) {
+            count += connection.subscriptions.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of messages received from clients on all topics.
+     */
+    public long getReceivedCount() {
+        return receivedTotal.get();
+    }
+
+    /**
+     * @param topic A topic clients publish to.
+     * @return The number of messages received from clients on the topic.
+     */
+    public long getReceivedCount(String topic) {
+        AtomicLong count = received.get(topic);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Deliver a message to the clients subscribed to its topic, at QoS 0.
+     *
+     * @param topic   The topic of the message.
+     * @param payload The payload of the message.
+     * @return The number of clients the message was delivered to.
+     */
+    public int publish(String topic, byte[] payload) {
+        byte[] topicBytes = encode(topic);
+        int delivered = 0;
+        for (Connection connection : connections) {
+            if (connection.isSubscribed(topic)) {
+                try {
+                    connection.sendPublish(topicBytes, payload);
+                    delivered++;
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * @param filter A topic filter, possibly with + and # wildcards.
+     * @param topic  A topic name.
+     * @return True if the filter matches the topic.
+     */
+    public static boolean matches(String filter, String topic) {
+        // topics starting with $ are reserved and not matched by leading wildcards
+        if (topic.startsWith("$") && (filter.startsWith("+") || filter.startsWith("#"))) {
+            return false;
+        }
+        int f = 0;
+        int t = 0;
+        while (f < filter.length()) {
+            int filterEnd = levelEnd(filter, f);
+            String level = filter.substring(f, filterEnd);
+            if (level.equals("#")) {
+                return true;
+            }
+            if (t > topic.length()) {
+                // the topic has fewer levels than the filter, which only matches if the rest is a #
+                return false;
+            }
+            int topicEnd = levelEnd(topic, t);
+            if (!level.equals("+") && !level.equals(topic.substring(t, topicEnd))) {
+                return false;
+            }
+            f = filterEnd + 1;
+            t = topicEnd + 1;
+        }
+        return t > topic.length();
+    }
+
+    private static int levelEnd(String topic, int start) {
+        int end = topic.indexOf('/', start);
+        return end < 0 ? topic.length() : end;
+    }
+
+    private void countReceived(String topic) {
+        AtomicLong count = received.get(topic);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = received.putIfAbsent(topic, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        receivedTotal.incrementAndGet();
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * A client connection, read by its own daemon thread. Writes are synchronized, since the
+     * broker also delivers messages from other threads.
+     */
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final List<String> subscriptions = new CopyOnWriteArrayList<String>();
+        // QoS 2 messages received and not yet released, owned by the reader thread
+        private final Set<Integer> pendingRelease = new HashSet<Integer>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void start() {
+            Thread reader = new Thread(this, "LocalBroker-" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int header = in.read();
+                    if (header < 0) {
+                        break;
+                    }
+                    byte[] body = new byte[readRemainingLength()];
+                    in.readFully(body);
+                    if (!handle(header >> 4, header & 0x0f, body)) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // the connection was closed
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * @return False if the connection should be closed.
+         */
+        private boolean handle(int type, int flags, byte[] body) throws IOException {
+            switch (type) {
+                case CONNECT:
+                    send(CONNACK << 4, new byte[]{0, 0});
+                    return true;
+                case PUBLISH:
+                    handlePublish(flags, body);
+                    return true;
+                case PUBREL:
+                    pendingRelease.remove(readShort(body, 0));
+                    send(PUBCOMP << 4, new byte[]{body[0], body[1]});
+                    return true;
+                case SUBSCRIBE:
+                    handleSubscribe(body);
+                    return true;
+                case UNSUBSCRIBE:
+                    for (int offset = 2; offset < body.length; ) {
+                        int length = readShort(body, offset);
+                        subscriptions.remove(new String(body, offset + 2, length, "UTF-8"));
+                        offset += 2 + length;
+                    }
+                    send(UNSUBACK << 4, new byte[]{body[0], body[1]});
+                    return true;
+                case PINGREQ:
+                    send(PINGRESP << 4, new byte[0]);
+                    return true;
+                case PUBACK:
+                case PUBREC:
+                case PUBCOMP:
+                    // messages are only delivered at QoS 0, so there is nothing to acknowledge
+                    return true;
+                case DISCONNECT:
+                default:
+                    return false;
+            }
+        }
+
+        private void handlePublish(int flags, byte[] body) throws IOException {
+            int qos = (flags >> 1) & 0x03;
+            int topicLength = readShort(body, 0);
+            String topic = new String(body, 2, topicLength, "UTF-8");
+            int offset = 2 + topicLength;
+            if (qos == 0) {
+                countReceived(topic);
+            } else if (qos == 1) {
+                countReceived(topic);
+                send(PUBACK << 4, new byte[]{body[offset], body[offset + 1]});
+            } else {
+                // a resent message is only counted once
+                if (pendingRelease.add(readShort(body, offset))) {
+                    countReceived(topic);
+                }
+                send(PUBREC << 4, new byte[]{body[offset], body[offset + 1]});
+            }
+        }
+
+        private void handleSubscribe(byte[] body) throws IOException {
+            int count = 0;
+            for (int offset = 2; offset < body.length; count++) {
+                offset += 2 + readShort(body, offset) + 1;
+            }
+            byte[] ack = new byte[2 + count];
+            ack[0] = body[0];
+            ack[1] = body[1];
+            for (int offset = 2; offset < body.length; ) {
+                int length = readShort(body, offset);
+                String filter = new String(body, offset + 2, length, "UTF-8");
+                if (!subscriptions.contains(filter)) {
+                    subscriptions.add(filter);
+                }
+                // granted QoS 0, the QoS messages are delivered at
+                offset += 2 + length + 1;
+            }
+            send(SUBACK << 4, ack);
+        }
+
+        boolean isSubscribed(String topic) {
+            for (String filter : subscriptions) {
+                if (matches(filter, topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void sendPublish(byte[] topic, byte[] payload) throws IOException {
+            synchronized (out) {
+                out.write(PUBLISH << 4);
+                writeRemainingLength(2 + topic.length + payload.length);
+                out.write(topic.length >> 8);
+                out.write(topic.length);
+                out.write(topic);
+                out.write(payload);
+                out.flush();
+            }
+        }
+
+        private void send(int header, byte[] body) throws IOException {
+            synchronized (out) {
+                out.write(header);
+                writeRemainingLength(body.length);
+                out.write(body);
+                out.flush();
+            }
+        }
+
+        private int readRemainingLength() throws IOException {
+            int length = 0;
+            int shift = 0;
+            int digit;
+            do {
+                digit = in.readUnsignedByte();
+                length |= (digit & 0x7f) << shift;
+                shift += 7;
+            } while ((digit & 0x80) != 0 && shift < 28);
+            return length;
+        }
+
+        private void writeRemainingLength(int length) throws IOException {
+            do {
+                int digit = length & 0x7f;
+                length >>>= 7;
+                out.write(length > 0 ? digit | 0x80 : digit);
+            } while (length > 0);
+        }
+
+        private int readShort(byte[] body, int offset) {
+            return ((body[offset] & 0xff) << 8) | (body[offset + 1] & 0xff);
+        }
+
+        void close() {
+            connections.remove(this);
+            closeQuietly(socket);
+        }
+    }
+}
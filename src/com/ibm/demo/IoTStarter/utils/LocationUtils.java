@@ -21,15 +21,25 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Looper;
 import android.util.Log;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * LocationUtils enables and disables location services so that the application can publish latitude
  * and longitude data.
+ *
+ * In adaptive mode, location updates follow the motion state detected from the accelerometer:
+ * while moving they come from the best provider at a short interval, and while stationary from
+ * the network provider at a long interval, or not at all if the network provider is disabled.
+ * Every change of provider or interval is kept in a bounded history.
  */
-public class LocationUtils implements LocationListener {
+public class LocationUtils implements LocationListener, MotionListener {
     private final static String TAG = LocationUtils.class.getName();
 
     private static LocationUtils instance;
@@ -38,6 +48,14 @@ public class LocationUtils implements LocationListener {
     private Context context;
     private Criteria criteria;
 
+    // Adaptive mode and the current location request, a null provider when updates are suspended
+    private volatile boolean adaptive = Constants.LOCATION_ADAPTIVE;
+    private boolean connected;
+    private String provider;
+    private long minTime;
+    private float minDistance;
+    private final LinkedList<Change> history = new LinkedList<Change>();
+
     private LocationUtils(Context context) {
         this.context = context;
         this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
@@ -67,8 +85,16 @@ public class LocationUtils implements LocationListener {
         }
 
         // register for location updates
-        String bestProvider = locationManager.getBestProvider(criteria, false);
-        locationManager.requestLocationUpdates(bestProvider, Constants.LOCATION_MIN_TIME, Constants.LOCATION_MIN_DISTANCE, this);
+        synchronized (this) {
+            connected = true;
+            MotionDetector motionDetector = DeviceSensor.getInstance(context).getMotionDetector();
+            if (adaptive) {
+                motionDetector.setListener(this);
+                apply(motionDetector.getState());
+            } else {
+                apply(Constants.MotionState.UNKNOWN);
+            }
+        }
         app.setCurrentLocation(locationManager.getLastKnownLocation(locationProvider));
     }
 
@@ -78,10 +104,108 @@ public class LocationUtils implements LocationListener {
     public void disconnect() {
         Log.d(TAG, ".disconnect() entered");
 
-        String locationProvider = LocationManager.NETWORK_PROVIDER;
-        if (locationManager.isProviderEnabled(locationProvider)) {
+        DeviceSensor.getInstance(context).getMotionDetector().setListener(null);
+        synchronized (this) {
+            connected = false;
+            request(Constants.MotionState.UNKNOWN, null, 0, 0);
+        }
+    }
+
+    /**
+     * @param adaptive True to adapt location updates to the motion state of the device. Takes
+     *                 effect on the next connect().
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return The provider currently requested, or null if location updates are suspended.
+     */
+    public synchronized String getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return The changes of provider and interval, oldest first.
+     */
+    public synchronized List<Change> getHistory() {
+        return new ArrayList<Change>(history);
+    }
+
+    /**
+     * Called by the sensor thread when the device starts or stops moving.
+     *
+     * @param state The new motion state.
+     */
+    @Override
+    public void onMotionChanged(Constants.MotionState state) {
+        Log.d(TAG, ".onMotionChanged() entered, state: " + state);
+        synchronized (this) {
+            if (connected && adaptive) {
+                apply(state);
+            }
+        }
+    }
+
+    /**
+     * Request location updates suited to a motion state.
+     *
+     * @param state The motion state, UNKNOWN for the fixed interval of the non adaptive mode.
+     */
+    private void apply(Constants.MotionState state) {
+        String bestProvider = locationManager.getBestProvider(criteria, false);
+        if (state == Constants.MotionState.MOVING) {
+            if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
+                bestProvider = LocationManager.GPS_PROVIDER;
+            }
+            request(state, bestProvider, Constants.LOCATION_MOVING_TIME, Constants.LOCATION_MOVING_DISTANCE);
+        } else if (state == Constants.MotionState.STATIONARY) {
+            String networkProvider = LocationManager.NETWORK_PROVIDER;
+            if (locationManager.isProviderEnabled(networkProvider)) {
+                request(state, networkProvider, Constants.LOCATION_STATIONARY_TIME, Constants.LOCATION_STATIONARY_DISTANCE);
+            } else {
+                request(state, null, 0, 0);
+            }
+        } else {
+            request(state, bestProvider, Constants.LOCATION_MIN_TIME, Constants.LOCATION_MIN_DISTANCE);
+        }
+    }
+
+    /**
+     * Replace the current location request, if it differs, and record the change.
+     *
+     * @param state    The motion state causing the change.
+     * @param provider The provider to request updates from, or null to suspend updates.
+     * @param minTime  The minimum interval between updates, in milliseconds.
+     * @param minDistance The minimum distance between updates, in meters.
+     */
+    private void request(Constants.MotionState state, String provider, long minTime, float minDistance) {
+        if (provider == null ? this.provider == null
+                : provider.equals(this.provider) && minTime == this.minTime && minDistance == this.minDistance) {
+            return;
+        }
+        if (this.provider != null) {
             locationManager.removeUpdates(this);
         }
+        if (provider != null) {
+            // motion changes arrive on sensor threads that have no looper
+            locationManager.requestLocationUpdates(provider, minTime, minDistance, this, Looper.getMainLooper());
+        }
+        this.provider = provider;
+        this.minTime = minTime;
+        this.minDistance = minDistance;
+
+        Change change = new Change(System.currentTimeMillis(), state, provider, minTime, minDistance);
+        Log.i(TAG, "Location updates changed: " + change);
+        if (history.size() == Constants.LOCATION_HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        history.addLast(change);
     }
 
     @Override
@@ -125,4 +249,54 @@ public class LocationUtils implements LocationListener {
         criteria.setSpeedRequired(false);
         return criteria;
     }
+
+    /**
+     * A change of the location request.
+     */
+    public static class Change {
+        private final long time;
+        private final Constants.MotionState state;
+        private final String provider;
+        private final long minTime;
+        private final float minDistance;
+
+        Change(long time, Constants.MotionState state, String provider, long minTime, float minDistance) {
+            this.time = time;
+            this.state = state;
+            this.provider = provider;
+            this.minTime = minTime;
+            this.minDistance = minDistance;
+        }
+
+        /**
+         * @return The time of the change, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public Constants.MotionState getState() {
+            return state;
+        }
+
+        /**
+         * @return The provider requested, or null if location updates were suspended.
+         */
+        public String getProvider() {
+            return provider;
+        }
+
+        public long getMinTime() {
+            return minTime;
+        }
+
+        public float getMinDistance() {
+            return minDistance;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + state + " " + (provider == null ? "suspended" : provider + " " + minTime + "ms " + minDistance + "m");
+        }
+    }
 }
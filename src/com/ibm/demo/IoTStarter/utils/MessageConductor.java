@@ -25,13 +25,17 @@ import com.ibm.demo.IoTStarter.fragments.IoTFragment;
 import com.ibm.demo.IoTStarter.fragments.LogFragment;
 import com.ibm.demo.IoTStarter.fragments.LoginFragment;
 import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Steer incoming MQTT messages to the proper activities based on their content.
+ *
+ * Commands are routed by topic through a TopicMatcher, which resolves the handler for a
+ * topic in a single pass regardless of the number of registered commands. The payload is
+ * then read by a streaming PayloadReader, which extracts only the fields declared by the
+ * handler without building an object tree.
+ *
+ * Handlers run on the lanes of a CommandDispatcher rather than on the MQTT callback
+ * thread, so that a slow handler does not delay the delivery of other messages.
  */
 public class MessageConductor {
 
@@ -39,36 +43,186 @@ public class MessageConductor {
     private static MessageConductor instance;
     private Context context;
     private IoTStarterApplication app;
+    private final TopicMatcher<Route> routes = new TopicMatcher<Route>();
+    private final CommandDispatcher dispatcher;
+    private final static Tracer tracer = Tracer.getInstance();
 
     private MessageConductor(Context context) {
+        this(new CommandDispatcher(Constants.DISPATCH_LANES, Constants.DISPATCH_QUEUE_CAPACITY,
+                Constants.DISPATCH_OVERFLOW_POLICY));
         this.context = context;
         app = (IoTStarterApplication) context.getApplicationContext();
+
+        registerHandler(Constants.COLOR_EVENT, new ColorHandler());
+        registerHandler(Constants.LIGHT_EVENT, new LightHandler());
+        registerHandler(Constants.TEXT_EVENT, new TextHandler());
+        registerHandler(Constants.ALERT_EVENT, new AlertHandler());
+    }
+
+    /**
+     * Create a conductor without the application and without any handlers, e.g. to benchmark
+     * steering with handlers of its own.
+     *
+     * @param dispatcher The dispatcher to run the command handlers on.
+     */
+    MessageConductor(CommandDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
     }
 
-    public static MessageConductor getInstance(Context context) {
+    public static synchronized MessageConductor getInstance(Context context) {
         if (instance == null) {
             instance = new MessageConductor(context);
         }
         return instance;
     }
 
+    /**
+     * Register the handler for a command, received in any payload format.
+     *
+     * @param command The command to handle.
+     * @param handler The handler for the command.
+     */
+    public void registerHandler(String command, CommandHandler handler) {
+        routes.register(TopicFactory.getCommandTopic(command, "+"), new Route(handler, dispatcher.getLane(command)));
+    }
+
+    /**
+     * @return The dispatcher running the command handlers, e.g. to read its queue metrics.
+     */
+    public CommandDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
     /**
      * Steer incoming MQTT messages to the proper activities based on their content.
      *
-     * @param payload The log of the MQTT message.
-     * @param topic The topic the MQTT message was received on.
-     * @throws JSONException If the message contains invalid JSON.
+     * The message is queued for its handler, which decodes and processes it asynchronously.
+     *
+     * @param payload The payload of the MQTT message.
+     * @param topic The topic the MQTT message was received on. Its format segment selects
+     *              the codec used to decode the payload.
+     * @throws JSONException If the message is in an unknown format.
      */
-    public void steerMessage(String payload, String topic) throws JSONException {
+    public void steerMessage(byte[] payload, String topic) throws JSONException {
         Log.d(TAG, ".steerMessage() entered");
-        JSONObject top = new JSONObject(payload);
-        JSONObject d = top.getJSONObject("d");
+        long start = tracer.begin();
+        Route route = routes.match(topic);
+        if (route == null) {
+            Log.d(TAG, ".steerMessage() - no handler for topic " + topic);
+            return;
+        }
+
+        String format = TopicFactory.getFormat(topic);
+        PayloadCodec codec = PayloadCodecs.get(format);
+        if (codec == null) {
+            throw new JSONException("Unsupported payload format " + format);
+        }
+        dispatcher.dispatch(route.lane, new CommandTask(route.handler, codec, payload, topic));
+        tracer.end(Tracer.DISPATCH, start, payload.length);
+    }
+
+    /**
+     * The handler for a command and the dispatcher lane its commands run on.
+     */
+    private static class Route {
+        final CommandHandler handler;
+        final int lane;
+
+        Route(CommandHandler handler, int lane) {
+            this.handler = handler;
+            this.lane = lane;
+        }
+    }
+
+    /**
+     * Decodes a received command and passes it to its handler.
+     */
+    private static class CommandTask implements Runnable {
+        private final CommandHandler handler;
+        private final PayloadCodec codec;
+        private final byte[] payload;
+        private final String topic;
+
+        CommandTask(CommandHandler handler, PayloadCodec codec, byte[] payload, String topic) {
+            this.handler = handler;
+            this.codec = codec;
+            this.payload = payload;
+            this.topic = topic;
+        }
+
+        @Override
+        public void run() {
+            try {
+                CommandFields fields = handler.getFields();
+                if (fields == null) {
+                    long start = tracer.begin();
+                    handler.handleCommand(null, topic);
+                    tracer.end(Tracer.HANDLE, start, payload.length);
+                    return;
+                }
+                // the fields are shared by all commands of the handler, which may also run on a caller thread
+                synchronized (fields) {
+                    long start = tracer.begin();
+                    PayloadReader reader = codec.getReader();
+                    reader.reset(payload, 0, payload.length);
+                    fields.read(reader);
+                    tracer.end(Tracer.PARSE, start, payload.length);
+                    start = tracer.begin();
+                    handler.handleCommand(fields, topic);
+                    tracer.end(Tracer.HANDLE, start, payload.length);
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, ".run() - Exception caught while handling a command on " + topic, e);
+            } catch (RuntimeException e) {
+                // an exception escaping a dispatcher lane thread would kill the process, drop the command instead
+                Log.e(TAG, ".run() - Unexpected exception caught while handling a command on " + topic + ", dropping it", e);
+            }
+        }
+    }
+
+    /**
+     * Send an intent to the fragments, tracing the time it takes.
+     */
+    private void broadcast(Intent intent) {
+        long start = tracer.begin();
+        context.sendBroadcast(intent);
+        tracer.end(Tracer.BROADCAST, start);
+    }
 
-        if (topic.contains(Constants.COLOR_EVENT)) {
+    /**
+     * @return The intent for the fragment that is currently displayed, or null if there is none.
+     */
+    private Intent getRunningActivityIntent(String runningActivity) {
+        if (runningActivity.equals(LogFragment.class.getName())) {
+            return new Intent(Constants.APP_ID + Constants.INTENT_LOG);
+        } else if (runningActivity.equals(LoginFragment.class.getName())) {
+            return new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
+        } else if (runningActivity.equals(IoTFragment.class.getName())) {
+            return new Intent(Constants.APP_ID + Constants.INTENT_IOT);
+        } else if (runningActivity.equals(ProfilesActivity.class.getName())) {
+            return new Intent(Constants.APP_ID + Constants.INTENT_PROFILES);
+        }
+        return null;
+    }
+
+    private class ColorHandler implements CommandHandler {
+        private final CommandFields fields = new CommandFields(4);
+        private final int rField = fields.addNumber("r");
+        private final int gField = fields.addNumber("g");
+        private final int bField = fields.addNumber("b");
+        private final int alphaField = fields.addNumber("alpha");
+
+        @Override
+        public CommandFields getFields() {
+            return fields;
+        }
+
+        @Override
+        public void handleCommand(CommandFields d, String topic) throws JSONException {
             Log.d(TAG, "Color Event");
-            int r = d.getInt("r");
-            int g = d.getInt("g");
-            int b = d.getInt("b");
+            int r = d.getInt(rField);
+            int g = d.getInt(gField);
+            int b = d.getInt(bField);
             
             /*
              * nessage example publish to
@@ -81,10 +235,10 @@ public class MessageConductor {
 "alpha":"0.5"}}
              */
             
-            Log.d(TAG, ".steerMessage() - color r = "+d.getInt("r"));
-            Log.d(TAG, ".steerMessage() - color g = "+d.getInt("g"));
+            Log.d(TAG, ".steerMessage() - color r = "+r);
+            Log.d(TAG, ".steerMessage() - color g = "+g);
             // alpha value received is 0.0 < a < 1.0 but Color.agrb expects 0 < a < 255
-            int alpha = (int)(d.getDouble("alpha")*255.0);
+            int alpha = (int)(d.getDouble(alphaField)*255.0);
             if ((r > 255 || r < 0) ||
                     (g > 255 || g < 0) ||
                     (b > 255 || b < 0) ||
@@ -98,81 +252,95 @@ public class MessageConductor {
             if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
                 Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
                 actionIntent.putExtra(Constants.INTENT_DATA, Constants.COLOR_EVENT);
-                context.sendBroadcast(actionIntent);
+                broadcast(actionIntent);
             }
-        } else if (topic.contains(Constants.LIGHT_EVENT)) {
+        }
+    }
+
+    private class LightHandler implements CommandHandler {
+
+        @Override
+        public CommandFields getFields() {
+            return null;
+        }
+
+        @Override
+        public void handleCommand(CommandFields d, String topic) throws JSONException {
             app.handleLightMessage();
-        } else if (topic.contains(Constants.TEXT_EVENT)) {
-            int unreadCount = app.getUnreadCount();
-            app.setUnreadCount(++unreadCount);
+        }
+    }
+
+    private class TextHandler implements CommandHandler {
+        private final CommandFields fields = new CommandFields(1);
+        private final int textField = fields.addText("text");
+
+        @Override
+        public CommandFields getFields() {
+            return fields;
+        }
 
-            // save payload in an arrayList
-            List messageRecvd = new ArrayList<String>();
-            messageRecvd.add(payload);
+        @Override
+        public void handleCommand(CommandFields d, String topic) throws JSONException {
+            app.getMetrics().getUnread().increment();
 
-            app.getMessageLog().add(d.getString("text"));
+            app.getMessageLog().add(d.getString(textField));
 
             String runningActivity = app.getCurrentRunningActivity();
             if (runningActivity != null && runningActivity.equals(LogFragment.class.getName())) {
                 Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
                 actionIntent.putExtra(Constants.INTENT_DATA, Constants.TEXT_EVENT);
-                context.sendBroadcast(actionIntent);
+                broadcast(actionIntent);
             }
 
-            Intent unreadIntent;
-            if (runningActivity.equals(LogFragment.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
-            } else if (runningActivity.equals(LoginFragment.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
-            } else if (runningActivity.equals(IoTFragment.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
-            } else if (runningActivity.equals(ProfilesActivity.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_PROFILES);
-            } else {
+            if (runningActivity == null) {
+                return;
+            }
+            Intent unreadIntent = getRunningActivityIntent(runningActivity);
+            if (unreadIntent == null) {
                 return;
             }
 
-            String messageText = d.getString("text");
+            String messageText = d.getString(textField);
             if (messageText != null) {
                 unreadIntent.putExtra(Constants.INTENT_DATA, Constants.UNREAD_EVENT);
-                context.sendBroadcast(unreadIntent);
+                broadcast(unreadIntent);
             }
-        } else if (topic.contains(Constants.ALERT_EVENT)) {
-            // save payload in an arrayList
-            int unreadCount = app.getUnreadCount();
-            app.setUnreadCount(++unreadCount);
+        }
+    }
 
-            List messageRecvd = new ArrayList<String>();
-            messageRecvd.add(payload);
+    private class AlertHandler implements CommandHandler {
+        private final CommandFields fields = new CommandFields(1);
+        private final int textField = fields.addText("text");
 
-            app.getMessageLog().add(d.getString("text"));
+        @Override
+        public CommandFields getFields() {
+            return fields;
+        }
+
+        @Override
+        public void handleCommand(CommandFields d, String topic) throws JSONException {
+            app.getMetrics().getUnread().increment();
+
+            app.getMessageLog().add(d.getString(textField));
 
             String runningActivity = app.getCurrentRunningActivity();
             if (runningActivity != null) {
                 if (runningActivity.equals(LogFragment.class.getName())) {
                     Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
                     actionIntent.putExtra(Constants.INTENT_DATA, Constants.TEXT_EVENT);
-                    context.sendBroadcast(actionIntent);
+                    broadcast(actionIntent);
                 }
 
-                Intent alertIntent;
-                if (runningActivity.equals(LogFragment.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
-                } else if (runningActivity.equals(LoginFragment.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
-                } else if (runningActivity.equals(IoTFragment.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
-                } else if (runningActivity.equals(ProfilesActivity.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_PROFILES);
-                } else {
+                Intent alertIntent = getRunningActivityIntent(runningActivity);
+                if (alertIntent == null) {
                     return;
                 }
 
-                String messageText = d.getString("text");
+                String messageText = d.getString(textField);
                 if (messageText != null) {
                     alertIntent.putExtra(Constants.INTENT_DATA, Constants.ALERT_EVENT);
-                    alertIntent.putExtra(Constants.INTENT_DATA_MESSAGE, d.getString("text"));
-                    context.sendBroadcast(alertIntent);
+                    alertIntent.putExtra(Constants.INTENT_DATA_MESSAGE, d.getString(textField));
+                    broadcast(alertIntent);
                 }
             }
         }
@@ -17,33 +17,79 @@ package com.ibm.demo.IoTStarter.utils;
 
 /**
  * Build messages to be published by the application.
- * This class is currently unused.
+ *
+ * The write methods serialize directly into a MessageWriter so that messages can be published
+ * in any payload format without creating intermediate strings. The get methods return the
+ * same messages as JSON strings.
  */
 public class MessageFactory {
     private final static String TAG = MessageFactory.class.getName();
+    private final static String[] AXES = {"x", "y", "z"};
+    private static volatile String deviceName = Constants.DEVICE_NAME;
+    private final static Tracer tracer = Tracer.getInstance();
+
+    /**
+     * @param name The name reported as "myName" in accel event messages.
+     */
+    public static void setDeviceName(String name) {
+        deviceName = name;
+    }
 
     /**
      * Construct a JSON formatted string accel event message
      * @param G Float array with accelerometer x, y, z data
      * @param O Float array with gyroscope roll, pitch data
-     * @param yaw Float representing gyroscope yaw value
+     * @param yaw Float representing the fused yaw (azimuth) angle
      * @param lon Double containing device longitude
      * @param lat Double containing device latitude
      * @return String containing JSON formatted message
      */
     public static String getAccelMessage(float G[], float O[], float yaw, double lon, double lat) {
-        String messageData = "{ \"d\": {" +
-        		"\"myName\":\"MVK Nexus Accelerometer\", " +
-                "\"acceleration_x\":" + G[0] + ", " +
-                "\"acceleration_y\":" + G[1] + ", " +
-                "\"acceleration_z\":" + G[2] + ", " +
-                "\"roll\":" + O[2] + ", " +
-                "\"pitch\":" + O[1] + ", " +
-                "\"yaw\":" + yaw + ", " +
-                "\"lon\":" + lon + ", " +
-                "\"lat\":" + lat + " " +
-                "} }";
-        return messageData;
+        return writeAccelMessage(JsonWriter.get(), G, O, yaw, lon, lat).toString();
+    }
+
+    /**
+     * Write an accel event message
+     * @param writer The writer to serialize the message into
+     * @param G Float array with accelerometer x, y, z data
+     * @param O Float array with gyroscope roll, pitch data
+     * @param yaw Float representing the fused yaw (azimuth) angle
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     * @return The writer
+     */
+    public static MessageWriter writeAccelMessage(MessageWriter writer, float G[], float O[], float yaw, double lon, double lat) {
+        writer.beginObject().name("d");
+        writeAccelData(writer, G, O, yaw, lon, lat);
+        return writer.endObject();
+    }
+
+    /**
+     * Write the data object of an accel event message
+     * @param writer The writer to serialize the data object into
+     * @param G Float array with accelerometer x, y, z data
+     * @param O Float array with gyroscope roll, pitch data
+     * @param yaw Float representing the fused yaw (azimuth) angle
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     * @return The writer
+     */
+    public static MessageWriter writeAccelData(MessageWriter writer, float G[], float O[], float yaw, double lon, double lat) {
+        long start = tracer.begin();
+        int length = writer.getLength();
+        writer.beginObject()
+                .name("myName").value(deviceName)
+                .name("acceleration_x").value(G[0])
+                .name("acceleration_y").value(G[1])
+                .name("acceleration_z").value(G[2])
+                .name("roll").value(O[2])
+                .name("pitch").value(O[1])
+                .name("yaw").value(yaw)
+                .name("lon").value(lon)
+                .name("lat").value(lat)
+                .endObject();
+        tracer.end(Tracer.SERIALIZE, start, writer.getLength() - length);
+        return writer;
     }
 
     /**
@@ -52,10 +98,21 @@ public class MessageFactory {
      * @return String containing JSON formatted message
      */
     public static String getTextMessage(String text) {
-        String messageData = "{\"d\":{" +
-                "\"text\":\"" + text.toString() + "\"" +
-                " } }";
-        return messageData;
+        return writeTextMessage(JsonWriter.get(), text).toString();
+    }
+
+    /**
+     * Write a text event message.
+     * @param writer The writer to serialize the message into
+     * @param text String of text message to send
+     * @return The writer
+     */
+    public static MessageWriter writeTextMessage(MessageWriter writer, String text) {
+        return writer.beginObject()
+                .name("d").beginObject()
+                .name("text").value(text)
+                .endObject()
+                .endObject();
     }
 
     /**
@@ -68,20 +125,173 @@ public class MessageFactory {
      * @return String containing JSON formatted message
      */
     public static String getTouchMessage(double x, double y, double dX, double dY, boolean ended) {
-        String endString;
+        MessageWriter writer = JsonWriter.get().beginObject().name("d");
+        writeTouchData(writer, x, y, dX, dY, ended);
+        return writer.endObject().toString();
+    }
+
+    /**
+     * Write the data object of a touchmove event message
+     * @param writer The writer to serialize the data object into
+     * @param x Double of relative x position on screen
+     * @param y Double of relative y position on screen
+     * @param dX Double of relative x delta from previous position
+     * @param dY Double of relative y delta from previous position
+     * @param ended True if final message of the touch, false otherwise
+     * @return The writer
+     */
+    public static MessageWriter writeTouchData(MessageWriter writer, double x, double y, double dX, double dY, boolean ended) {
+        writer.beginObject()
+                .name("screenX").value(x)
+                .name("screenY").value(y)
+                .name("deltaX").value(dX)
+                .name("deltaY").value(dY);
         if (ended) {
-            endString = ", \"ended\":1 } }";
-        } else {
-            endString = " } }";
+            writer.name("ended").value(1);
+        }
+        return writer.endObject();
+    }
+
+    /**
+     * Write an accelwindow event message with the aggregates of the accelerometer samples
+     * captured during a publish period
+     * @param writer The writer to serialize the message into
+     * @param window The window of x, y, z samples
+     * @return The writer
+     */
+    public static MessageWriter writeAccelWindowMessage(MessageWriter writer, SampleWindow window) {
+        long start = tracer.begin();
+        writer.beginObject().name("d").beginObject()
+                .name("count").value((long) window.getCount())
+                .name("duration").value(window.getDuration() / 1e9);
+        for (int axis = 0; axis < AXES.length; axis++) {
+            writer.name(AXES[axis]).beginObject()
+                    .name("min").value(window.getMin(axis))
+                    .name("max").value(window.getMax(axis))
+                    .name("mean").value(window.getMean(axis))
+                    .name("rms").value(window.getRms(axis))
+                    .name("stddev").value(window.getStdDev(axis))
+                    .endObject();
         }
+        writer.endObject().endObject();
+        tracer.end(Tracer.SERIALIZE, start, writer.getLength());
+        return writer;
+    }
 
-        String messageData = "{ \"d\": { " +
-                "\"screenX\":" + x + ", " +
-                "\"screenY\":" + y + ", " +
-                "\"deltaX\":" + dX + ", " +
-                "\"deltaY\":" + dY +
-                endString;
-        return messageData;
+    /**
+     * Write an accelraw event message with all accelerometer samples captured during a
+     * publish period. Samples are written as columns, with their times in seconds relative
+     * to the first sample.
+     * @param writer The writer to serialize the message into
+     * @param window The window of x, y, z samples
+     * @return The writer
+     */
+    public static MessageWriter writeAccelRawMessage(MessageWriter writer, SampleWindow window) {
+        long start = tracer.begin();
+        int count = window.getCount();
+        writer.beginObject().name("d").beginObject()
+                .name("count").value((long) count);
+        long first = count > 0 ? window.getTimestamp(0) : 0;
+        writer.name("t").beginArray();
+        for (int i = 0; i < count; i++) {
+            writer.value((window.getTimestamp(i) - first) / 1e9);
+        }
+        writer.endArray();
+        for (int axis = 0; axis < AXES.length; axis++) {
+            writer.name(AXES[axis]).beginArray();
+            for (int i = 0; i < count; i++) {
+                writer.value(window.getValue(i, axis));
+            }
+            writer.endArray();
+        }
+        writer.endObject().endObject();
+        tracer.end(Tracer.SERIALIZE, start, writer.getLength());
+        return writer;
     }
 
+    /**
+     * Write a vibration event message with the spectral features of the accelerometer samples
+     * captured during a publish period
+     * @param writer The writer to serialize the message into
+     * @param analyzer The analyzer holding the features of the period
+     * @return The writer
+     */
+    public static MessageWriter writeVibrationMessage(MessageWriter writer, VibrationAnalyzer analyzer) {
+        writer.beginObject().name("d").beginObject()
+                .name("rate").value(analyzer.getSampleRate())
+                .name("fft").value((long) analyzer.getFftSize())
+                .name("rms").value(analyzer.getRms())
+                .name("crest").value(analyzer.getCrestFactor());
+        writer.name("freq").beginArray();
+        for (int i = 0; i < analyzer.getPeakCount(); i++) {
+            writer.value(analyzer.getPeakFrequency(i));
+        }
+        writer.endArray().name("amp").beginArray();
+        for (int i = 0; i < analyzer.getPeakCount(); i++) {
+            writer.value(analyzer.getPeakAmplitude(i));
+        }
+        writer.endArray().name("bands").beginArray();
+        for (int i = 0; i < analyzer.getBandCount(); i++) {
+            writer.value(analyzer.getBandRms(i));
+        }
+        return writer.endArray().endObject().endObject();
+    }
+
+    /**
+     * Write a stats event message with the performance of the device over the last report interval
+     * @param writer The writer to serialize the message into
+     * @param stats The reporter holding the values of the interval
+     * @return The writer
+     */
+    public static MessageWriter writeStatsMessage(MessageWriter writer, StatsReporter stats) {
+        LatencyHistogram latencies = stats.getLatencies();
+        writer.beginObject().name("d").beginObject()
+                .name("interval").value(stats.getInterval())
+                .name("pubRate").value(stats.getPublishRate())
+                .name("recvRate").value(stats.getReceiveRate())
+                .name("pubBytes").value(stats.getPublishByteRate())
+                .name("recvBytes").value(stats.getReceiveByteRate())
+                .name("journal").value(stats.getJournalDepth())
+                .name("dispatchQueue").value((long) stats.getDispatchDepth());
+        writer.name("drops").beginObject()
+                .name("limiter").value(stats.getLimiterDropped())
+                .name("coalesced").value(stats.getCoalesced())
+                .name("dispatch").value(stats.getDispatchDropped())
+                .name("journal").value(stats.getJournalDropped())
+                .name("samples").value(stats.getLostSamples())
+                .endObject();
+        writer.name("ack").beginObject()
+                .name("count").value(latencies.getCount())
+                .name("p50").value(latencies.getPercentile(50) / 1000.0)
+                .name("p90").value(latencies.getPercentile(90) / 1000.0)
+                .name("p99").value(latencies.getPercentile(99) / 1000.0)
+                .name("max").value(latencies.getMax() / 1000.0)
+                .endObject();
+        writer.name("connects").value(stats.getConnects())
+                .name("losses").value(stats.getConnectionLosses())
+                .name("heapUsed").value(stats.getHeapUsed())
+                .name("heapMax").value(stats.getHeapMax());
+        if (stats.getGcCount() >= 0) {
+            writer.name("gcCount").value(stats.getGcCount());
+        }
+        if (stats.getGcTime() >= 0) {
+            writer.name("gcTime").value(stats.getGcTime());
+        }
+        return writer.endObject().endObject();
+    }
+
+    /**
+     * Write the data object of a sensor source event message, with one field per value
+     * @param writer The writer to serialize the data object into
+     * @param source The source of the sample
+     * @param values The values of the sample, in the order of the fields of the source
+     * @return The writer
+     */
+    public static MessageWriter writeSensorData(MessageWriter writer, SensorSource source, float values[]) {
+        writer.beginObject();
+        for (int i = 0; i < source.getFieldCount(); i++) {
+            writer.name(source.getField(i)).value(values[i]);
+        }
+        return writer.endObject();
+    }
 }
@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Append-only, segmented on-disk journal for outbound MQTT messages. MqttHandler writes
+ * messages into the journal while the client is disconnected, and drains it in order once
+ * the connection is established again.
+ *
+ * Records are appended to the newest segment file. When a segment reaches the configured
+ * segment size a new one is started. When the journal exceeds its size cap the oldest
+ * segment is dropped. Records older than the message TTL are skipped when read.
+ */
+public class MessageJournal {
+    private final static String TAG = MessageJournal.class.getName();
+
+    private final static String DIRECTORY = "journal";
+    private final static String SEGMENT_SUFFIX = ".seg";
+    private final static String CURSOR_FILE = "cursor";
+    private final static int RECORD_HEADER_SIZE = 8 + 1 + 2 + 4;
+
+    private static MessageJournal instance;
+
+    private final File directory;
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+    private DataOutputStream writer;
+    private DataInputStream reader;
+    private long readOffset;
+    private long totalBytes;
+    private long nextSegmentId;
+    private boolean pending;
+
+    private long segmentSize = Constants.JOURNAL_SEGMENT_SIZE;
+    private long maxBytes = Constants.JOURNAL_MAX_BYTES;
+    private long messageTtl = Constants.JOURNAL_MESSAGE_TTL;
+
+    private long appendedCount = 0;
+    private long droppedCount = 0;
+    private long expiredCount = 0;
+
+    private MessageJournal(Context context) {
+        this.directory = context.getApplicationContext().getDir(DIRECTORY, Context.MODE_PRIVATE);
+        recover();
+    }
+
+    /**
+     * @param context The application context for the object.
+     * @return The MessageJournal object for the application.
+     */
+    public static synchronized MessageJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageJournal(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Append a message to the end of the journal. If the journal is full, the oldest
+     * segment is dropped to make room.
+     *
+     * @param topic    The topic the message is to be published to.
+     * @param payload  Buffer containing the message payload.
+     * @param offset   Offset of the payload in the buffer.
+     * @param length   Length of the payload.
+     * @param qos      Quality of service for the message.
+     * @param retained True if the retained flag is required.
+     * @param timestamp The System.currentTimeMillis() at which the message was published.
+     * @return True if the message was written to disk, false otherwise.
+     */
+    public synchronized boolean append(String topic, byte[] payload, int offset, int length, int qos, boolean retained, long timestamp) {
+        try {
+            byte[] topicBytes = topic.getBytes("UTF-8");
+            int recordSize = RECORD_HEADER_SIZE + topicBytes.length + length;
+            if (recordSize > maxBytes) {
+                Log.w(TAG, ".append() - message larger than journal, dropping");
+                droppedCount++;
+                return false;
+            }
+            Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (tail == null || writer == null || tail.size + recordSize > segmentSize) {
+                tail = roll();
+            }
+            while (totalBytes + recordSize > maxBytes && segments.size() > 1) {
+                dropOldest();
+            }
+
+            writer.writeLong(timestamp);
+            writer.writeByte((qos & 0x03) | (retained ? 0x04 : 0));
+            writer.writeShort(topicBytes.length);
+            writer.write(topicBytes);
+            writer.writeInt(length);
+            writer.write(payload, offset, length);
+            writer.flush();
+
+            long written = writer.size();
+            totalBytes += written - tail.size;
+            tail.size = written;
+            tail.count++;
+            appendedCount++;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, ".append() - IOException caught while writing to journal", e);
+            closeWriter();
+            droppedCount++;
+            return false;
+        }
+    }
+
+    /**
+     * Read the next unexpired record in the journal without consuming it. Calling peek()
+     * again before advance() returns the same record.
+     *
+     * @param record The record to read the message into.
+     * @return True if a record was read, false if the journal is empty.
+     */
+    public synchronized boolean peek(JournalRecord record) {
+        if (pending) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        while (!segments.isEmpty()) {
+            Segment head = segments.get(0);
+            try {
+                if (reader == null) {
+                    openReader(head);
+                }
+                if (readOffset >= head.size) {
+                    if (segments.size() == 1) {
+                        return false;
+                    }
+                    deleteHead();
+                    continue;
+                }
+                int size = readRecord(reader, record);
+                record.size = size;
+                if (messageTtl > 0 && now - record.timestamp > messageTtl) {
+                    consume(head, size);
+                    expiredCount++;
+                    continue;
+                }
+                pending = true;
+                return true;
+            } catch (IOException e) {
+                // truncated or corrupt record, discard the remainder of this segment
+                Log.w(TAG, ".peek() - unreadable record in segment " + head.file.getName() + ", skipping segment");
+                if (segments.size() == 1) {
+                    closeWriter();
+                }
+                deleteHead();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consume the record most recently returned by peek().
+     */
+    public synchronized void advance(JournalRecord record) {
+        if (pending && !segments.isEmpty()) {
+            consume(segments.get(0), record.size);
+            pending = false;
+        }
+    }
+
+    /**
+     * Consume the record most recently returned by peek() without it being delivered,
+     * counting it as dropped.
+     */
+    public synchronized void discard(JournalRecord record) {
+        if (pending && !segments.isEmpty()) {
+            consume(segments.get(0), record.size);
+            pending = false;
+            droppedCount++;
+        }
+    }
+
+    /**
+     * Persist the current read position so that consumed records are not replayed after
+     * the application restarts.
+     */
+    public synchronized void commit() {
+        File cursor = new File(directory, CURSOR_FILE);
+        File temp = new File(directory, CURSOR_FILE + ".tmp");
+        long segmentId = segments.isEmpty() ? -1 : segments.get(0).id;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeLong(segmentId);
+            out.writeLong(readOffset);
+            out.close();
+            out = null;
+            if (!temp.renameTo(cursor)) {
+                Log.w(TAG, ".commit() - unable to replace journal cursor");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, ".commit() - IOException caught while writing cursor", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * @return Number of records currently held in the journal.
+     */
+    public synchronized long getPendingCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return getPendingCount() == 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    public synchronized void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param messageTtl Maximum age in milliseconds of a record before it is discarded.
+     *                   Zero or less disables expiry.
+     */
+    public synchronized void setMessageTtl(long messageTtl) {
+        this.messageTtl = messageTtl;
+    }
+
+    /**
+     * Load existing segments from disk and restore the read position from the cursor file.
+     */
+    private void recover() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        JournalRecord scratch = new JournalRecord();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            long id;
+            try {
+                id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = new Segment(id, file);
+            segment.size = validSize(segment, scratch);
+            totalBytes += segment.size;
+            segments.add(segment);
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+        }
+
+        DataInputStream in = null;
+        try {
+            File cursor = new File(directory, CURSOR_FILE);
+            if (cursor.exists() && !segments.isEmpty()) {
+                in = new DataInputStream(new FileInputStream(cursor));
+                long segmentId = in.readLong();
+                long offset = in.readLong();
+                while (segments.size() > 1 && segments.get(0).id < segmentId) {
+                    deleteHead();
+                }
+                Segment head = segments.get(0);
+                if (head.id == segmentId && offset > 0 && offset <= head.size) {
+                    openReader(head);
+                    while (readOffset < offset) {
+                        consume(head, readRecord(reader, scratch));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, ".recover() - unable to restore journal cursor, replaying from start");
+            closeReader();
+        } finally {
+            closeQuietly(in);
+        }
+        Log.d(TAG, ".recover() - recovered " + getPendingCount() + " messages in " + segments.size() + " segments");
+    }
+
+    /**
+     * Scan a segment, counting its records and truncating any torn record at its end.
+     */
+    private long validSize(Segment segment, JournalRecord scratch) {
+        DataInputStream in = null;
+        long size = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            while (true) {
+                size += readRecord(in, scratch);
+                segment.count++;
+            }
+        } catch (EOFException e) {
+            // end of segment reached
+        } catch (IOException e) {
+            Log.w(TAG, ".validSize() - corrupt record in " + segment.file.getName());
+        } finally {
+            closeQuietly(in);
+        }
+        if (size < segment.file.length()) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(segment.file, "rw");
+                file.setLength(size);
+            } catch (IOException e) {
+                Log.e(TAG, ".validSize() - unable to truncate " + segment.file.getName(), e);
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        return size;
+    }
+
+    private static int readRecord(DataInputStream in, JournalRecord record) throws IOException {
+        record.timestamp = in.readLong();
+        int flags = in.readByte();
+        record.qos = flags & 0x03;
+        record.retained = (flags & 0x04) != 0;
+        int topicLength = in.readUnsignedShort();
+        byte[] topic = new byte[topicLength];
+        in.readFully(topic);
+        record.topic = new String(topic, "UTF-8");
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("negative payload length");
+        }
+        record.payload = new byte[length];
+        in.readFully(record.payload);
+        return RECORD_HEADER_SIZE + topicLength + length;
+    }
+
+    private Segment roll() throws IOException {
+        closeWriter();
+        long id = nextSegmentId++;
+        Segment segment = new Segment(id, new File(directory, segmentName(id)));
+        segments.add(segment);
+        writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.file, true)));
+        return segment;
+    }
+
+    private void openReader(Segment segment) throws IOException {
+        closeReader();
+        reader = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+        readOffset = 0;
+    }
+
+    private void consume(Segment segment, int size) {
+        readOffset += size;
+        segment.count--;
+    }
+
+    private void dropOldest() {
+        Segment head = segments.get(0);
+        Log.w(TAG, ".dropOldest() - journal full, dropping " + head.count + " messages");
+        droppedCount += head.count;
+        deleteHead();
+    }
+
+    private void deleteHead() {
+        closeReader();
+        pending = false;
+        Segment head = segments.remove(0);
+        totalBytes -= head.size;
+        if (!head.file.delete()) {
+            Log.w(TAG, ".deleteHead() - unable to delete " + head.file.getName());
+        }
+    }
+
+    private void closeReader() {
+        closeQuietly(reader);
+        reader = null;
+        readOffset = 0;
+    }
+
+    private void closeWriter() {
+        closeQuietly(writer);
+        writer = null;
+    }
+
+    private static String segmentName(long id) {
+        String digits = Long.toString(id);
+        StringBuilder name = new StringBuilder();
+        for (int i = digits.length(); i < 19; i++) {
+            name.append('0');
+        }
+        return name.append(digits).append(SEGMENT_SUFFIX).toString();
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * A single segment file of the journal.
+     */
+    private static class Segment {
+        final long id;
+        final File file;
+        long size;
+        long count;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Holder for a message read from the journal.
+     */
+    public static class JournalRecord {
+        public long timestamp;
+        public String topic;
+        public byte[] payload;
+        public int qos;
+        public boolean retained;
+        int size;
+    }
+}
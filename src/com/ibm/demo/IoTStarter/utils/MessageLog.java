@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Fixed capacity ring buffer of the text and alert messages shown by the log fragment.
+ * When it is full, each added message overwrites the oldest one, so memory stays flat
+ * however long the application runs. Messages are added by the dispatcher threads and
+ * read on the UI thread, so all access is synchronized on the log.
+ *
+ * Each message is identified by a sequence number that grows with every message added and
+ * is never reused, not even after the log is cleared. Readers use it to copy only the
+ * messages added since their last read, and adapters use it as a stable item id.
+ */
+public class MessageLog {
+
+    private final int capacity;
+    private final String[] messages;
+
+    // sequence numbers of the oldest message held and of the next message to add
+    private long first;
+    private long next;
+
+    /**
+     * @param capacity The number of messages the log holds, rounded up to a power of two.
+     */
+    public MessageLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = size;
+        messages = new String[size];
+    }
+
+    /**
+     * Add a message, overwriting the oldest one if the log is full.
+     *
+     * @param message The message to add.
+     * @return The sequence number of the message.
+     */
+    public synchronized long add(String message) {
+        long sequence = next;
+        messages[(int) sequence & (capacity - 1)] = message;
+        next = sequence + 1;
+        if (next - first > capacity) {
+            first = next - capacity;
+        }
+        return sequence;
+    }
+
+    /**
+     * Remove all messages. Sequence numbers carry on from the last message added.
+     */
+    public synchronized void clear() {
+        for (long sequence = first; sequence < next; sequence++) {
+            messages[(int) sequence & (capacity - 1)] = null;
+        }
+        first = next;
+    }
+
+    /**
+     * @param sequence The sequence number of the message.
+     * @return The message, or null if it was overwritten, cleared or not added yet.
+     */
+    public synchronized String get(long sequence) {
+        if (sequence < first || sequence >= next) {
+            return null;
+        }
+        return messages[(int) sequence & (capacity - 1)];
+    }
+
+    /**
+     * Copy the messages added since a sequence number into a ring of the same capacity,
+     * each at the slot of its sequence number. Messages no longer held are skipped.
+     *
+     * @param from The sequence number of the first message to copy, normally the value
+     *             returned by the previous call.
+     * @param ring The array to copy the messages into, of length getCapacity().
+     * @return The sequence number of the next message to be added.
+     */
+    public synchronized long copyTo(long from, String[] ring) {
+        if (ring.length != capacity) {
+            throw new IllegalArgumentException("Ring length must be " + capacity + ": " + ring.length);
+        }
+        for (long sequence = Math.max(from, first); sequence < next; sequence++) {
+            int slot = (int) sequence & (capacity - 1);
+            ring[slot] = messages[slot];
+        }
+        return next;
+    }
+
+    /**
+     * @return The sequence number of the oldest message held, or of the next message if the log is empty.
+     */
+    public synchronized long getFirstSequence() {
+        return first;
+    }
+
+    /**
+     * @return The sequence number of the next message to be added.
+     */
+    public synchronized long getNextSequence() {
+        return next;
+    }
+
+    public synchronized int size() {
+        return (int) (next - first);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Publishes a message. Implemented by MqttHandler, and by test doubles when the publish
+ * pipeline is driven without a broker.
+ */
+public interface MessagePublisher {
+
+    /**
+     * @param topic    The topic to publish the message to.
+     * @param payload  Buffer containing the message.
+     * @param offset   Offset of the message in the buffer.
+     * @param length   Length of the message.
+     * @param retained Whether the broker should retain the message.
+     * @param qos      The quality of service of the message.
+     */
+    void publish(String topic, byte[] payload, int offset, int length, boolean retained, int qos);
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Streaming writer for message payloads. MessageFactory describes messages through this
+ * interface, so the same message can be encoded in any payload format.
+ */
+public interface MessageWriter {
+
+    /**
+     * Discard the contents of the writer, keeping its buffer.
+     * @return This writer.
+     */
+    MessageWriter reset();
+
+    MessageWriter beginObject();
+
+    MessageWriter endObject();
+
+    MessageWriter beginArray();
+
+    MessageWriter endArray();
+
+    /**
+     * Write the name of the next object member.
+     * @param name The member name.
+     * @return This writer.
+     */
+    MessageWriter name(String name);
+
+    MessageWriter value(String value);
+
+    MessageWriter value(boolean value);
+
+    MessageWriter value(long value);
+
+    MessageWriter value(float value);
+
+    MessageWriter value(double value);
+
+    MessageWriter nullValue();
+
+    /**
+     * Write a value that was already encoded in the same format, such as the contents of
+     * another writer.
+     */
+    MessageWriter rawValue(byte[] value, int offset, int count);
+
+    /**
+     * @return The internal buffer. Only the first getLength() bytes are valid.
+     */
+    byte[] getBuffer();
+
+    int getLength();
+
+    /**
+     * @return A copy of the encoded message.
+     */
+    byte[] toByteArray();
+}
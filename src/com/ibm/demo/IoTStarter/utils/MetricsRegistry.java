@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counters and rates of the application, updated from any thread without locks.
+ *
+ * Named counters are StripedCounters, so that the MQTT callback thread, the publishing
+ * threads and the UI thread can all update them without losing updates. Traffic is also
+ * tracked per topic and direction, as message and byte totals and as rates over a rolling
+ * window. Readers take a Snapshot rather than reading the live values one by one.
+ */
+public class MetricsRegistry {
+    private final static String TAG = MetricsRegistry.class.getName();
+
+    private static MetricsRegistry instance;
+
+    private final ConcurrentHashMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+    private final ConcurrentHashMap<String, Traffic> outbound = new ConcurrentHashMap<String, Traffic>();
+    private final ConcurrentHashMap<String, Traffic> inbound = new ConcurrentHashMap<String, Traffic>();
+    private final StripedCounter published = getCounter(Constants.METRIC_PUBLISHED);
+    private final StripedCounter received = getCounter(Constants.METRIC_RECEIVED);
+    private final StripedCounter unread = getCounter(Constants.METRIC_UNREAD);
+
+    /**
+     * @return The MetricsRegistry object for the application.
+     */
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * @param name The name of the counter.
+     * @return The counter with the name, created on first use.
+     */
+    public StripedCounter getCounter(String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return The number of messages published, directly or from the journal.
+     */
+    public StripedCounter getPublished() {
+        return published;
+    }
+
+    /**
+     * @return The number of messages received.
+     */
+    public StripedCounter getReceived() {
+        return received;
+    }
+
+    /**
+     * @return The number of text and alert commands not yet seen in the log.
+     */
+    public StripedCounter getUnread() {
+        return unread;
+    }
+
+    /**
+     * Count a message handed to the MQTT client.
+     *
+     * @param topic The topic of the message.
+     * @param bytes The size of the payload.
+     */
+    public void recordPublish(String topic, int bytes) {
+        published.increment();
+        getTraffic(outbound, topic).record(bytes);
+    }
+
+    /**
+     * @param topic A topic messages were published to.
+     * @return The number of messages of the topic handed to the MQTT client.
+     */
+    public long getPublishCount(String topic) {
+        Traffic topicTraffic = outbound.get(topic);
+        return topicTraffic != null ? topicTraffic.messages.sum() : 0;
+    }
+
+    /**
+     * Count a message received from the MQTT client.
+     *
+     * @param topic The topic of the message.
+     * @param bytes The size of the payload.
+     */
+    public void recordReceive(String topic, int bytes) {
+        received.increment();
+        getTraffic(inbound, topic).record(bytes);
+    }
+
+    private Traffic getTraffic(ConcurrentHashMap<String, Traffic> traffic, String topic) {
+        Traffic topicTraffic = traffic.get(topic);
+        if (topicTraffic == null) {
+            Traffic created = new Traffic();
+            topicTraffic = traffic.putIfAbsent(topic, created);
+            if (topicTraffic == null) {
+                topicTraffic = created;
+            }
+        }
+        return topicTraffic;
+    }
+
+    /**
+     * @return The current values of all counters and of the traffic of all topics.
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new HashMap<String, Long>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().sum());
+        }
+        long now = RateWindow.now();
+        List<TopicSnapshot> topics = new ArrayList<TopicSnapshot>();
+        for (Map.Entry<String, Traffic> entry : outbound.entrySet()) {
+            topics.add(entry.getValue().snapshot(entry.getKey(), Constants.Direction.OUTBOUND, now));
+        }
+        for (Map.Entry<String, Traffic> entry : inbound.entrySet()) {
+            topics.add(entry.getValue().snapshot(entry.getKey(), Constants.Direction.INBOUND, now));
+        }
+        return new Snapshot(counterValues, topics);
+    }
+
+    /**
+     * Reset all counters and forget the traffic of all topics.
+     */
+    public void reset() {
+        for (StripedCounter counter : counters.values()) {
+            counter.reset();
+        }
+        outbound.clear();
+        inbound.clear();
+    }
+
+    /**
+     * Messages and bytes of a topic in one direction.
+     */
+    private static class Traffic {
+        final StripedCounter messages = new StripedCounter();
+        final StripedCounter bytes = new StripedCounter();
+        final RateWindow messageRate = new RateWindow(Constants.METRICS_WINDOW, Constants.METRICS_BUCKETS);
+        final RateWindow byteRate = new RateWindow(Constants.METRICS_WINDOW, Constants.METRICS_BUCKETS);
+
+        void record(int size) {
+            long now = RateWindow.now();
+            messages.increment();
+            bytes.add(size);
+            messageRate.add(1, now);
+            byteRate.add(size, now);
+        }
+
+        TopicSnapshot snapshot(String topic, Constants.Direction direction, long now) {
+            return new TopicSnapshot(topic, direction, messages.sum(), bytes.sum(),
+                    messageRate.getRate(now), byteRate.getRate(now));
+        }
+    }
+
+    /**
+     * The values of the metrics at one point in time.
+     */
+    public static class Snapshot {
+        private final Map<String, Long> counters;
+        private final List<TopicSnapshot> topics;
+
+        Snapshot(Map<String, Long> counters, List<TopicSnapshot> topics) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.topics = Collections.unmodifiableList(topics);
+        }
+
+        /**
+         * @param name The name of a counter.
+         * @return The value of the counter, 0 if it was never used.
+         */
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return value == null ? 0 : value;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public long getPublishCount() {
+            return getCounter(Constants.METRIC_PUBLISHED);
+        }
+
+        public long getReceiveCount() {
+            return getCounter(Constants.METRIC_RECEIVED);
+        }
+
+        public long getUnreadCount() {
+            return getCounter(Constants.METRIC_UNREAD);
+        }
+
+        /**
+         * @return The traffic of each topic in each direction.
+         */
+        public List<TopicSnapshot> getTopics() {
+            return topics;
+        }
+
+        /**
+         * @param direction The direction of the traffic.
+         * @return The messages per second over the rolling window, for all topics together.
+         */
+        public double getMessageRate(Constants.Direction direction) {
+            double rate = 0;
+            for (TopicSnapshot topic : topics) {
+                if (topic.getDirection() == direction) {
+                    rate += topic.getMessageRate();
+                }
+            }
+            return rate;
+        }
+
+        /**
+         * @param direction The direction of the traffic.
+         * @return The bytes per second over the rolling window, for all topics together.
+         */
+        public double getByteRate(Constants.Direction direction) {
+            double rate = 0;
+            for (TopicSnapshot topic : topics) {
+                if (topic.getDirection() == direction) {
+                    rate += topic.getByteRate();
+                }
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * The traffic of a topic in one direction at one point in time.
+     */
+    public static class TopicSnapshot {
+        private final String topic;
+        private final Constants.Direction direction;
+        private final long messages;
+        private final long bytes;
+        private final double messageRate;
+        private final double byteRate;
+
+        TopicSnapshot(String topic, Constants.Direction direction, long messages, long bytes,
+                      double messageRate, double byteRate) {
+            this.topic = topic;
+            this.direction = direction;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.messageRate = messageRate;
+            this.byteRate = byteRate;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public Constants.Direction getDirection() {
+            return direction;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return The messages per second over the rolling window.
+         */
+        public double getMessageRate() {
+            return messageRate;
+        }
+
+        /**
+         * @return The bytes per second over the rolling window.
+         */
+        public double getByteRate() {
+            return byteRate;
+        }
+
+        @Override
+        public String toString() {
+            return direction + " " + topic + ": " + messages + " messages, " + bytes + " bytes, "
+                    + Math.round(messageRate) + "/s, " + Math.round(byteRate) + " B/s";
+        }
+    }
+}
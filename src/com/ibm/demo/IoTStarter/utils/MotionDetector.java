@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Detects whether the device is moving from its accelerometer samples. The activity is the
+ * rms deviation of the acceleration from its moving average, summed over the three axes and
+ * exponentially weighted with a time constant, so that gravity and a constant tilt do not count. The device is moving as soon as the activity exceeds the
+ * threshold, and stationary once the activity stayed below it for the stationary delay,
+ * so that short pauses do not count as stopping.
+ *
+ * Samples are added by the sensor thread, which also calls the listener on a change of state.
+ */
+public class MotionDetector {
+
+    private final static double NANOS_PER_MILLI = 1e6;
+
+    private double threshold;
+    private double timeConstant;
+    private long stationaryDelay;
+    private volatile MotionListener listener;
+
+    private volatile Constants.MotionState state = Constants.MotionState.UNKNOWN;
+    private final double[] mean = new double[3];
+    private double variance;
+    private long lastTimestamp;
+    private long quietSince;
+    private boolean primed;
+
+    /**
+     * @param threshold       The activity above which the device is moving, in m/s^2.
+     * @param timeConstant    The time constant of the averages, in milliseconds.
+     * @param stationaryDelay The time the activity stays below the threshold before the
+     *                        device is stationary, in milliseconds.
+     */
+    public MotionDetector(double threshold, long timeConstant, long stationaryDelay) {
+        this.threshold = threshold;
+        this.timeConstant = timeConstant * NANOS_PER_MILLI;
+        this.stationaryDelay = stationaryDelay;
+    }
+
+    public void setListener(MotionListener listener) {
+        this.listener = listener;
+    }
+
+    public Constants.MotionState getState() {
+        return state;
+    }
+
+    /**
+     * @return The rms deviation of the acceleration, in m/s^2.
+     */
+    public double getActivity() {
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * Add an accelerometer sample.
+     *
+     * @param timestamp The time of the sample, in nanoseconds.
+     * @param values    The acceleration along x, y and z, in m/s^2.
+     */
+    public void add(long timestamp, float[] values) {
+        if (!primed) {
+            primed = true;
+            for (int axis = 0; axis < 3; axis++) {
+                mean[axis] = values[axis];
+            }
+            lastTimestamp = timestamp;
+            quietSince = timestamp;
+            return;
+        }
+        double dt = timestamp - lastTimestamp;
+        lastTimestamp = timestamp;
+        if (dt <= 0) {
+            return;
+        }
+        double alpha = dt / (timeConstant + dt);
+        double squares = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            double deviation = values[axis] - mean[axis];
+            mean[axis] += alpha * deviation;
+            squares += deviation * deviation;
+        }
+        variance += alpha * (squares - variance);
+
+        if (variance > threshold * threshold) {
+            quietSince = timestamp;
+            setState(Constants.MotionState.MOVING);
+        } else if ((timestamp - quietSince) / NANOS_PER_MILLI >= stationaryDelay) {
+            setState(Constants.MotionState.STATIONARY);
+        }
+    }
+
+    private void setState(Constants.MotionState newState) {
+        if (state == newState) {
+            return;
+        }
+        state = newState;
+        MotionListener current = listener;
+        if (current != null) {
+            current.onMotionChanged(newState);
+        }
+    }
+}
@@ -31,11 +31,17 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import org.json.JSONException;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * This class provides a wrapper around the MQTT client API's and implements
  * the MqttCallback interface.
  */
-public class MqttHandler implements MqttCallback {
+public class MqttHandler implements MqttCallback, MessagePublisher, PublishCounts {
 
     private final static String TAG = MqttHandler.class.getName();
     private static MqttHandler instance;
@@ -43,10 +49,45 @@ public class MqttHandler implements MqttCallback {
     private Context context;
     private IoTStarterApplication app;
 
+    // Store-and-forward journal for messages published while disconnected
+    private MessageJournal journal;
+    private boolean journalAlways = false;
+    private final ScheduledExecutorService journalExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    // Messages handed to the journal thread and not yet written, which count as journaled
+    private final AtomicInteger pendingAppends = new AtomicInteger();
+    private final MessageJournal.JournalRecord journalRecord = new MessageJournal.JournalRecord();
+
+    // A journaled message stays at the head of the journal until it is acknowledged, so only
+    // one is handed to the client at a time. The send id tells a late callback for a send
+    // forgotten by a reconnect from the current one. Only used on the journal thread.
+    private boolean journalInFlight;
+    private int journalSend;
+    private int journalAttempts;
+    private int journalUncommitted;
+
+    // Publishes handed to the client and not yet acknowledged. The client fails any publish
+    // beyond its in-flight window, so no more than the window are handed to it at once.
+    // The generation changes with each client, whose outstanding publishes are forgotten.
+    private int inFlight;
+    private int inFlightGeneration;
+    private long saturatedCount;
+    private long failedCount;
+
+    // Outbound rate limits
+    private PublishLimiter limiter;
+    private final Tracer tracer = Tracer.getInstance();
+
+    // Broker used instead of the one of the connection type, e.g. a LocalBroker
+    private volatile String serverHostOverride;
+    private volatile String serverPortOverride;
+
     private MqttHandler(Context context) {
         this.context = context;
         this.app = (IoTStarterApplication) context.getApplicationContext();
         this.client = null;
+        this.journal = MessageJournal.getInstance(context);
+        this.limiter = new PublishLimiter(context);
     }
 
     /**
@@ -84,6 +125,10 @@ public class MqttHandler implements MqttCallback {
                 
             }
 
+            if (serverHostOverride != null) {
+                serverHost = serverHostOverride;
+                serverPort = serverPortOverride;
+            }
             
             clientId = "d:hhy6xb:MYNEXUS:8c705ae36b0c";//112233445566
             
@@ -95,6 +140,7 @@ public class MqttHandler implements MqttCallback {
                 client.unregisterResources();
                 client = null;
             }
+            resetInFlight();
             client = new MqttAndroidClient(context, connectionUri, clientId);
             client.setCallback(this);
 
@@ -124,6 +170,31 @@ public class MqttHandler implements MqttCallback {
         }
     }
 
+    /**
+     * Connect to another broker than the one of the connection type on the next connect().
+     * While another broker is set, only BrokerHarness messages are published to it. Other
+     * messages wait in the journal, which is not drained until the broker of the connection
+     * type is used again.
+     *
+     * @param host The host of the broker, or null to use the broker of the connection type.
+     * @param port The port of the broker.
+     */
+    public void setServer(String host, String port) {
+        serverPortOverride = port;
+        serverHostOverride = host;
+    }
+
+    /**
+     * @return True if another broker than the one of the connection type is set.
+     */
+    public boolean isServerOverridden() {
+        return serverHostOverride != null;
+    }
+
+    private static boolean isHarnessTopic(String topic) {
+        return Constants.HARNESS_EVENT.equals(TopicFactory.getName(topic));
+    }
+
     /**
      * Disconnect MqttAndroidClient from the MQTT server
      */
@@ -197,24 +268,95 @@ public class MqttHandler implements MqttCallback {
      * @param qos      quality of service (0, 1, 2)
      */
     public void publish(String topic, String message, boolean retained, int qos) {
+        byte[] payload = message.getBytes();
+        publish(topic, payload, 0, payload.length, retained, qos);
+    }
+
+    /**
+     * Publish message to a topic from a buffer, such as the one of a JsonWriter. The
+     * payload is copied, so the buffer may be reused as soon as this method returns.
+     *
+     * Messages are subject to the rate limits of the PublishLimiter. A message exceeding
+     * them is handled according to the policy of its event.
+     *
+     * @param topic    to publish the message to
+     * @param payload  buffer containing the serialized message
+     * @param offset   offset of the message in the buffer
+     * @param length   length of the message
+     * @param retained true if retained flag is requred
+     * @param qos      quality of service (0, 1, 2)
+     */
+    @Override
+    public void publish(String topic, byte[] payload, int offset, int length, boolean retained, int qos) {
+        publish(topic, payload, offset, length, retained, qos, System.nanoTime());
+    }
+
+    /**
+     * Publish a message that was published at an earlier time, e.g. one the PublishLimiter
+     * held back, so that its latency covers the time it waited.
+     *
+     * @param enqueueNanos The System.nanoTime() at which the message was first published.
+     */
+    void publish(String topic, byte[] payload, int offset, int length, boolean retained, int qos, long enqueueNanos) {
+        long start = tracer.begin();
+        enqueue(topic, payload, offset, length, retained, qos, enqueueNanos);
+        tracer.end(Tracer.PUBLISH, start, length);
+    }
+
+    private void enqueue(String topic, byte[] payload, int offset, int length, boolean retained, int qos, long enqueueNanos) {
         Log.d(TAG, ".publish() entered");
 
-        // check if client is connected
-        if (isMqttConnected()) {
-            // create a new MqttMessage from the message string
-            MqttMessage mqttMsg = new MqttMessage(message.getBytes());
+        // check if client is connected and no earlier messages are waiting in the journal
+        boolean connected = isMqttConnected();
+        boolean harness = false;
+        boolean direct;
+        if (serverHostOverride != null) {
+            // harness messages are published to the other broker and never journaled
+            harness = isHarnessTopic(topic);
+            direct = connected && harness;
+        } else {
+            direct = connected && !journalAlways && isJournalEmpty();
+        }
+        int generation = -1;
+        if (direct && !limiter.tryAcquire(topic)) {
+            switch (limiter.getPolicy(topic)) {
+                case DROP:
+                    Log.v(TAG, ".publish() - rate exceeded, dropping message to " + topic);
+                    limiter.countDropped(topic);
+                    return;
+                case COALESCE_LATEST:
+                    limiter.coalesce(topic, payload, offset, length, retained, qos, enqueueNanos);
+                    return;
+                default:
+                    // the journal publishes the message at the global rate on its own thread,
+                    // so that callers such as the UI and the scheduler threads never wait
+                    limiter.countQueued();
+                    direct = false;
+                    break;
+            }
+        }
+        if (direct) {
+            // when the in-flight window is full the message waits in the journal for acknowledgements
+            generation = tryAcquireInFlight();
+            direct = generation >= 0;
+        }
+        if (direct) {
+            // the client holds on to the payload until the message is delivered, so it needs its own copy
+            byte[] copy = new byte[length];
+            System.arraycopy(payload, offset, copy, 0, length);
+            MqttMessage mqttMsg = new MqttMessage(copy);
             // set retained flag
             mqttMsg.setRetained(retained);
             // set quality of service
             mqttMsg.setQos(qos);
             try {
                 // create ActionListener to handle message published results
-                ActionListener listener = new ActionListener(context, Constants.ActionStateStatus.PUBLISH);
-                Log.d(TAG, ".publish() - Publishing " + message + " to: " + topic + ", with QoS: " + qos + " with retained flag set to " + retained);
+                ActionListener listener = new ActionListener(context, topic, mqttMsg, generation, -1, enqueueNanos);
+                long start = tracer.begin();
                 client.publish(topic, mqttMsg, context, listener);
+                tracer.end(Tracer.SEND, start, qos);
 
-                int count = app.getPublishCount();
-                app.setPublishCount(++count);
+                app.getMetrics().recordPublish(topic, length);
 
                 String runningActivity = app.getCurrentRunningActivity();
                 if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
@@ -224,11 +366,330 @@ public class MqttHandler implements MqttCallback {
                 }
             } catch (MqttPersistenceException e) {
                 Log.e(TAG, "MqttPersistenceException caught while attempting to publish a message", e.getCause());
+                releaseInFlight(generation);
             } catch (MqttException e) {
                 Log.e(TAG, "MqttException caught while attempting to publish a message", e.getCause());
+                releaseInFlight(generation);
+            }
+        } else if (harness) {
+            Log.w(TAG, ".publish() - harness message could not be sent, dropping it");
+            synchronized (this) {
+                failedCount++;
             }
         } else {
-            connectionLost(null);
+            // store the message so that it is sent in order once the journal is drained
+            appendJournal(topic, payload, offset, length, qos, retained, enqueueNanos);
+            if (!connected) {
+                connectionLost(null);
+            }
+        }
+    }
+
+    /**
+     * Schedule the journal to be drained. Messages stored in the journal are published one
+     * at a time in the order they were written, each one after the previous one has been
+     * acknowledged. Draining stops when the client disconnects and resumes on reconnect.
+     */
+    public void drainJournal() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            journalExecutor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Write a message to the journal on the journal thread, so that the publishing thread,
+     * e.g. the UI thread while disconnected, does not wait for the disk. The journal is
+     * drained after the message is written. The journal keeps the time the message was
+     * published in wall clock time, which unlike System.nanoTime() survives a restart.
+     */
+    private void appendJournal(String topic, byte[] payload, int offset, int length, int qos, boolean retained, long enqueueNanos) {
+        byte[] copy = new byte[length];
+        System.arraycopy(payload, offset, copy, 0, length);
+        long timestamp = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueueNanos);
+        pendingAppends.incrementAndGet();
+        journalExecutor.execute(new AppendTask(topic, copy, qos, retained, timestamp));
+    }
+
+    private boolean isJournalEmpty() {
+        return pendingAppends.get() == 0 && journal.isEmpty();
+    }
+
+    private void scheduleDrain(long delay) {
+        if (drainScheduled.compareAndSet(false, true)) {
+            journalExecutor.schedule(drainTask, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called by the ActionListener of a publish once the client has acknowledged or failed it,
+     * freeing its place in the in-flight window.
+     *
+     * A journaled message is consumed from the journal once acknowledged. If it failed it stays
+     * at the head of the journal and is retried with a growing delay, up to JOURNAL_MAX_ATTEMPTS
+     * times before it is dropped. A message published directly that failed, e.g. because of a
+     * disconnect, is written to the journal.
+     *
+     * @param topic       The topic of the message.
+     * @param message     The message.
+     * @param generation  The in-flight generation the publish was handed to the client in.
+     * @param journalSend The send id of a journaled message, -1 for a message published directly.
+     * @param startNanos  The System.nanoTime() at which the message was published.
+     * @param delivered   True if the message was acknowledged, false if it failed.
+     */
+    void publishComplete(String topic, MqttMessage message, int generation, int journalSend, long startNanos, boolean delivered) {
+        releaseInFlight(generation);
+        if (!delivered) {
+            synchronized (this) {
+                failedCount++;
+            }
+        }
+        if (journalSend >= 0) {
+            journalExecutor.execute(new JournalAckTask(journalSend, delivered));
+        } else if (!delivered) {
+            if (isHarnessTopic(topic)) {
+                return;
+            }
+            byte[] payload = message.getPayload();
+            appendJournal(topic, payload, 0, payload.length, message.getQos(), message.isRetained(), startNanos);
+        } else if (!isJournalEmpty()) {
+            drainJournal();
+        }
+    }
+
+    /**
+     * @return The generation to release the place with, or -1 if the in-flight window is full.
+     */
+    private synchronized int tryAcquireInFlight() {
+        if (inFlight >= Constants.MQTT_MAX_INFLIGHT) {
+            saturatedCount++;
+            return -1;
+        }
+        inFlight++;
+        return inFlightGeneration;
+    }
+
+    private synchronized void releaseInFlight(int generation) {
+        if (generation == inFlightGeneration && inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    private void resetInFlight() {
+        synchronized (this) {
+            inFlightGeneration++;
+            inFlight = 0;
+        }
+        // a journaled message handed to the previous client is sent again once reconnected
+        journalExecutor.execute(journalResetTask);
+    }
+
+    /**
+     * @return The number of publishes handed to the client and not yet acknowledged.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * @return True if the in-flight window is full, so that messages wait for acknowledgements.
+     */
+    public synchronized boolean isSaturated() {
+        return inFlight >= Constants.MQTT_MAX_INFLIGHT;
+    }
+
+    /**
+     * @return The number of times a message could not be handed to the client because the
+     * in-flight window was full.
+     */
+    public synchronized long getSaturatedCount() {
+        return saturatedCount;
+    }
+
+    /**
+     * @return The number of publishes the client failed, which were journaled to be retried.
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @param journalAlways True if every message should be written to the journal before it is
+     *                      published, false if only messages published while disconnected are stored.
+     */
+    public void setJournalAlways(boolean journalAlways) {
+        this.journalAlways = journalAlways;
+    }
+
+    public MessageJournal getJournal() {
+        return journal;
+    }
+
+    public PublishLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public long getSentCount(String topic) {
+        return app.getMetrics().getPublishCount(topic);
+    }
+
+    @Override
+    public long getCoalescedCount(String topic) {
+        return limiter.getCoalescedCount(topic);
+    }
+
+    @Override
+    public long getDroppedCount(String topic) {
+        return limiter.getDroppedCount(topic);
+    }
+
+    /**
+     * @return The publish to acknowledgement latencies per topic and QoS.
+     */
+    public LatencyTracker getLatencyTracker() {
+        return LatencyTracker.getInstance();
+    }
+
+    /**
+     * @param topic The topic a producer is about to publish to.
+     * @return True if messages to the topic currently exceed the rate limits, are queued
+     * behind the journal or wait for the in-flight window, so that producers should publish
+     * less often.
+     */
+    public boolean isBackpressured(String topic) {
+        return limiter.isLimited(topic) || !isJournalEmpty() || isSaturated();
+    }
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainScheduled.set(false);
+            // the journaled message handed to the client is completed by a JournalAckTask,
+            // and journaled messages are not published to another broker
+            if (journalInFlight || serverHostOverride != null || !isMqttConnected() || !journal.peek(journalRecord)) {
+                return;
+            }
+            // the window is full, draining resumes when a publish completes
+            int generation = tryAcquireInFlight();
+            if (generation < 0) {
+                return;
+            }
+            // journaled messages were already admitted, but still count against the global rate
+            if (!limiter.acquireGlobal()) {
+                releaseInFlight(generation);
+                return;
+            }
+            MqttMessage mqttMsg = new MqttMessage(journalRecord.payload);
+            mqttMsg.setRetained(journalRecord.retained);
+            mqttMsg.setQos(journalRecord.qos);
+            try {
+                long startNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - journalRecord.timestamp);
+                ActionListener listener = new ActionListener(context, journalRecord.topic, mqttMsg, generation, ++journalSend, startNanos);
+                long start = tracer.begin();
+                client.publish(journalRecord.topic, mqttMsg, context, listener);
+                tracer.end(Tracer.SEND, start, journalRecord.qos);
+                journalInFlight = true;
+            } catch (MqttException e) {
+                // leave the record in the journal and try again later
+                releaseInFlight(generation);
+                Log.w(TAG, ".drainTask.run() - publish refused with reason " + e.getReasonCode() + ", retrying");
+                scheduleDrain(Constants.JOURNAL_RETRY_DELAY);
+            }
+        }
+    };
+
+    private final Runnable journalResetTask = new Runnable() {
+        @Override
+        public void run() {
+            journalInFlight = false;
+            journalSend++;
+            if (journalUncommitted > 0) {
+                journal.commit();
+                journalUncommitted = 0;
+            }
+        }
+    };
+
+    /**
+     * Writes a message to the journal on the journal thread.
+     */
+    private class AppendTask implements Runnable {
+        private final String topic;
+        private final byte[] payload;
+        private final int qos;
+        private final boolean retained;
+        private final long timestamp;
+
+        AppendTask(String topic, byte[] payload, int qos, boolean retained, long timestamp) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void run() {
+            journal.append(topic, payload, 0, payload.length, qos, retained, timestamp);
+            pendingAppends.decrementAndGet();
+            drainTask.run();
+        }
+    }
+
+    /**
+     * Completes the journaled message at the head of the journal on the journal thread.
+     */
+    private class JournalAckTask implements Runnable {
+        private final int send;
+        private final boolean delivered;
+
+        JournalAckTask(int send, boolean delivered) {
+            this.send = send;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void run() {
+            // the send was forgotten by a reconnect, its record is sent again
+            if (!journalInFlight || send != journalSend) {
+                return;
+            }
+            journalInFlight = false;
+            if (delivered) {
+                journalAttempts = 0;
+                journal.advance(journalRecord);
+                commitJournal(journal.isEmpty());
+                app.getMetrics().recordPublish(journalRecord.topic, journalRecord.payload.length);
+
+                String runningActivity = app.getCurrentRunningActivity();
+                if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
+                    Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
+                    actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_PUBLISHED);
+                    context.sendBroadcast(actionIntent);
+                }
+                drainTask.run();
+            } else if (++journalAttempts >= Constants.JOURNAL_MAX_ATTEMPTS) {
+                Log.w(TAG, ".JournalAckTask.run() - dropping message to " + journalRecord.topic + " after " + journalAttempts + " attempts");
+                journalAttempts = 0;
+                journal.discard(journalRecord);
+                commitJournal(journal.isEmpty());
+                drainTask.run();
+            } else {
+                long delay = Math.min(Constants.JOURNAL_RETRY_DELAY << (journalAttempts - 1), Constants.JOURNAL_MAX_RETRY_DELAY);
+                scheduleDrain(delay);
+            }
+        }
+    }
+
+    /**
+     * Count a record consumed from the journal and persist the read position every
+     * JOURNAL_COMMIT_INTERVAL records, or when forced, so that a restart replays no more
+     * than that many messages.
+     */
+    private void commitJournal(boolean force) {
+        if (++journalUncommitted >= Constants.JOURNAL_COMMIT_INTERVAL || force) {
+            journal.commit();
+            journalUncommitted = 0;
         }
     }
 
@@ -244,7 +705,15 @@ public class MqttHandler implements MqttCallback {
             throwable.printStackTrace();
         }
 
+        // also called when publishing while disconnected, which is not a new loss
+        if (app.isConnected()) {
+            app.getMetrics().getCounter(Constants.METRIC_CONNECTION_LOSSES).increment();
+        }
         app.setConnected(false);
+        // publishes outstanding on the lost connection are not acknowledged anymore
+        resetInFlight();
+        // stats are only reported while connected, they restart with the next connection
+        StatsReporter.getInstance(context).stop();
 
         String runningActivity = app.getCurrentRunningActivity();
         if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
@@ -264,19 +733,21 @@ public class MqttHandler implements MqttCallback {
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
         Log.d(TAG, ".messageArrived() entered");
+        long start = tracer.begin();
 
-        int receiveCount = app.getReceiveCount();
-        app.setReceiveCount(++receiveCount);
+        byte[] payload = mqttMessage.getPayload();
+        app.getMetrics().recordReceive(topic, payload.length);
         String runningActivity = app.getCurrentRunningActivity();
         if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
             Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
             actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_RECEIVED);
+            long broadcastStart = tracer.begin();
             context.sendBroadcast(actionIntent);
+            tracer.end(Tracer.BROADCAST, broadcastStart);
         }
 
-        String payload = new String(mqttMessage.getPayload());
         Log.d(TAG, ".messageArrived - Message received on topic " + topic
-                + ": message is " + payload);
+                + ": message is " + payload.length + " bytes");
         // TODO: Process message
         try {
             // send the message through the application logic
@@ -285,10 +756,13 @@ public class MqttHandler implements MqttCallback {
             Log.e(TAG, ".messageArrived() - Exception caught while steering a message", e.getCause());
             e.printStackTrace();
         }
+        tracer.end(Tracer.ARRIVED, start, payload.length);
     }
 
     /**
-     * Handle notification that message delivery completed successfully.
+     * Handle notification that message delivery completed successfully. The delivery
+     * latency is recorded by the ActionListener of the publish, which knows its topic,
+     * QoS and start time.
      *
      * @param iMqttDeliveryToken The token corresponding to the message which was delivered.
      */
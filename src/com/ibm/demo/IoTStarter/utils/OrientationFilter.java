@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Complementary filter fusing the gyroscope with the orientation from the accelerometer
+ * and magnetometer. Gyroscope rates are integrated into a unit quaternion, which follows
+ * rotations smoothly but drifts, and each accelerometer/magnetometer orientation pulls the
+ * quaternion towards it with a time constant, which removes the drift while filtering out
+ * the noise of those sensors. Without a gyroscope, the output is the accelerometer and
+ * magnetometer orientation.
+ *
+ * The quaternion rotates device coordinates into world coordinates, as the rotation matrix
+ * of SensorManager.getRotationMatrix(), and the angles follow SensorManager.getOrientation().
+ * All state is preallocated; an instance is used by the sensor thread only.
+ */
+public class OrientationFilter {
+
+    private final static double NANOS_PER_SECOND = 1e9;
+    // gyroscope samples further apart than this are not integrated
+    private final static double MAX_GYRO_INTERVAL = 0.5;
+
+    private double timeConstant;
+
+    // orientation quaternion w, x, y, z
+    private double qw = 1;
+    private double qx;
+    private double qy;
+    private double qz;
+    private boolean initialized;
+    private long gyroTimestamp;
+    private long correctionTimestamp;
+    private boolean hasGyro;
+
+    /**
+     * @param timeConstant Time, in seconds, over which the accelerometer and magnetometer
+     *                     orientation corrects the gyroscope. Shorter follows them more closely.
+     */
+    public OrientationFilter(double timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+    public void setTimeConstant(double timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+    /**
+     * Rotate the orientation by a gyroscope sample.
+     *
+     * @param rates     Angular rates around the device x, y and z axes, in rad/s.
+     * @param timestamp The timestamp of the sample, in nanoseconds.
+     */
+    public void updateGyro(float[] rates, long timestamp) {
+        hasGyro = true;
+        double dt = (timestamp - gyroTimestamp) / NANOS_PER_SECOND;
+        gyroTimestamp = timestamp;
+        if (!initialized || dt <= 0 || dt > MAX_GYRO_INTERVAL) {
+            return;
+        }
+
+        double wx = rates[0];
+        double wy = rates[1];
+        double wz = rates[2];
+        double rate = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        if (rate < 1e-9) {
+            return;
+        }
+        double half = rate * dt / 2;
+        double s = Math.sin(half) / rate;
+        double dw = Math.cos(half);
+        double dx = wx * s;
+        double dy = wy * s;
+        double dz = wz * s;
+
+        // q = q * dq, the rates being in device coordinates
+        double w = qw * dw - qx * dx - qy * dy - qz * dz;
+        double x = qw * dx + qx * dw + qy * dz - qz * dy;
+        double y = qw * dy - qx * dz + qy * dw + qz * dx;
+        double z = qw * dz + qx * dy - qy * dx + qz * dw;
+        set(w, x, y, z);
+    }
+
+    /**
+     * Pull the orientation towards the orientation measured by the accelerometer and magnetometer.
+     *
+     * @param R         Rotation matrix from SensorManager.getRotationMatrix(), 9 values.
+     * @param timestamp The timestamp of the sensor sample, in nanoseconds.
+     */
+    public void correct(float[] R, long timestamp) {
+        double m00 = R[0], m01 = R[1], m02 = R[2];
+        double m10 = R[3], m11 = R[4], m12 = R[5];
+        double m20 = R[6], m21 = R[7], m22 = R[8];
+        double w, x, y, z;
+        double trace = m00 + m11 + m22;
+        if (trace > 0) {
+            double s = Math.sqrt(trace + 1) * 2;
+            w = s / 4;
+            x = (m21 - m12) / s;
+            y = (m02 - m20) / s;
+            z = (m10 - m01) / s;
+        } else if (m00 > m11 && m00 > m22) {
+            double s = Math.sqrt(1 + m00 - m11 - m22) * 2;
+            w = (m21 - m12) / s;
+            x = s / 4;
+            y = (m01 + m10) / s;
+            z = (m02 + m20) / s;
+        } else if (m11 > m22) {
+            double s = Math.sqrt(1 + m11 - m00 - m22) * 2;
+            w = (m02 - m20) / s;
+            x = (m01 + m10) / s;
+            y = s / 4;
+            z = (m12 + m21) / s;
+        } else {
+            double s = Math.sqrt(1 + m22 - m00 - m11) * 2;
+            w = (m10 - m01) / s;
+            x = (m02 + m20) / s;
+            y = (m12 + m21) / s;
+            z = s / 4;
+        }
+
+        double dt = (timestamp - correctionTimestamp) / NANOS_PER_SECOND;
+        correctionTimestamp = timestamp;
+        if (!initialized || !hasGyro || dt <= 0) {
+            initialized = true;
+            set(w, x, y, z);
+            return;
+        }
+
+        // normalized linear interpolation, the short way around
+        double gain = dt / (timeConstant + dt);
+        if (qw * w + qx * x + qy * y + qz * z < 0) {
+            w = -w;
+            x = -x;
+            y = -y;
+            z = -z;
+        }
+        set(qw + (w - qw) * gain, qx + (x - qx) * gain, qy + (y - qy) * gain, qz + (z - qz) * gain);
+    }
+
+    /**
+     * @return True once the orientation was measured by the accelerometer and magnetometer.
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @param quaternion Array receiving the orientation quaternion w, x, y, z.
+     */
+    public void getQuaternion(float[] quaternion) {
+        quaternion[0] = (float) qw;
+        quaternion[1] = (float) qx;
+        quaternion[2] = (float) qy;
+        quaternion[3] = (float) qz;
+    }
+
+    /**
+     * @param orientation Array receiving azimuth, pitch and roll in radians, as
+     *                    SensorManager.getOrientation().
+     */
+    public void getOrientation(float[] orientation) {
+        double m01 = 2 * (qx * qy - qw * qz);
+        double m11 = 1 - 2 * (qx * qx + qz * qz);
+        double m20 = 2 * (qx * qz - qw * qy);
+        double m21 = 2 * (qy * qz + qw * qx);
+        double m22 = 1 - 2 * (qx * qx + qy * qy);
+        orientation[0] = (float) Math.atan2(m01, m11);
+        orientation[1] = (float) Math.asin(Math.max(-1, Math.min(1, -m21)));
+        orientation[2] = (float) Math.atan2(-m20, m22);
+    }
+
+    private void set(double w, double x, double y, double z) {
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        qw = w / norm;
+        qx = x / norm;
+        qy = y / norm;
+        qz = z / norm;
+    }
+}
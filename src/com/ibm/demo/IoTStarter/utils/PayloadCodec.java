@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * A payload format for published and received messages. The name of the codec is used as
+ * the format segment of the topic, e.g. iot-2/evt/accel/fmt/cbor.
+ */
+public interface PayloadCodec {
+
+    /**
+     * @return The name of the format, as used in the /fmt/ segment of topics.
+     */
+    String getName();
+
+    /**
+     * @return The writer for this format confined to the calling thread, emptied and ready
+     * for a new message.
+     */
+    MessageWriter getWriter();
+
+    /**
+     * @param capacity Initial size of the buffer of the writer.
+     * @return A new writer for this format.
+     */
+    MessageWriter newWriter(int capacity);
+
+    /**
+     * @return A new reader for payloads in this format.
+     */
+    PayloadReader newReader();
+
+    /**
+     * @return The reader for this format confined to the calling thread.
+     */
+    PayloadReader getReader();
+}
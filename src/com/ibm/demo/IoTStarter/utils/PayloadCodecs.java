@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the payload formats known to the application, and of the format used to
+ * publish each event. Events are published as JSON unless another format is selected.
+ */
+public class PayloadCodecs {
+    private final static String TAG = PayloadCodecs.class.getName();
+
+    public final static PayloadCodec JSON = new JsonCodec();
+    public final static PayloadCodec CBOR = new CborCodec();
+
+    private final static ConcurrentHashMap<String, PayloadCodec> codecs = new ConcurrentHashMap<String, PayloadCodec>();
+    private final static ConcurrentHashMap<String, PayloadCodec> eventCodecs = new ConcurrentHashMap<String, PayloadCodec>();
+
+    static {
+        register(JSON);
+        register(CBOR);
+    }
+
+    /**
+     * Make a payload format available for publishing and receiving messages.
+     * @param codec The codec for the format.
+     */
+    public static void register(PayloadCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * @param format The name of a format, e.g. the format segment of a topic.
+     * @return The codec for the format, or null if the format is unknown.
+     */
+    public static PayloadCodec get(String format) {
+        return codecs.get(format);
+    }
+
+    /**
+     * @param event The event to get the format for.
+     * @return The codec that the event is published with.
+     */
+    public static PayloadCodec getEventCodec(String event) {
+        PayloadCodec codec = eventCodecs.get(event);
+        return codec != null ? codec : JSON;
+    }
+
+    /**
+     * Select the format an event is published with.
+     * @param event The event to set the format for.
+     * @param format The name of a registered format.
+     */
+    public static void setEventFormat(String event, String format) {
+        PayloadCodec codec = codecs.get(format);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown payload format " + format);
+        }
+        eventCodecs.put(event, codec);
+    }
+
+    /**
+     * JSON payloads, published with JsonWriter.
+     */
+    private static class JsonCodec implements PayloadCodec {
+        private final ThreadLocal<PayloadReader> readers = new ReaderLocal(this);
+
+        @Override
+        public String getName() {
+            return Constants.FORMAT_JSON;
+        }
+
+        @Override
+        public MessageWriter getWriter() {
+            return JsonWriter.get();
+        }
+
+        @Override
+        public MessageWriter newWriter(int capacity) {
+            return new JsonWriter(capacity);
+        }
+
+        @Override
+        public PayloadReader newReader() {
+            return new JsonReader();
+        }
+
+        @Override
+        public PayloadReader getReader() {
+            return readers.get();
+        }
+    }
+
+    /**
+     * CBOR payloads, published with CborWriter.
+     */
+    private static class CborCodec implements PayloadCodec {
+        private final ThreadLocal<PayloadReader> readers = new ReaderLocal(this);
+
+        @Override
+        public String getName() {
+            return Constants.FORMAT_CBOR;
+        }
+
+        @Override
+        public MessageWriter getWriter() {
+            return CborWriter.get();
+        }
+
+        @Override
+        public MessageWriter newWriter(int capacity) {
+            return new CborWriter(capacity);
+        }
+
+        @Override
+        public PayloadReader newReader() {
+            return new CborReader();
+        }
+
+        @Override
+        public PayloadReader getReader() {
+            return readers.get();
+        }
+    }
+
+    /**
+     * Holds a reader of a codec for each thread.
+     */
+    private static class ReaderLocal extends ThreadLocal<PayloadReader> {
+        private final PayloadCodec codec;
+
+        ReaderLocal(PayloadCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        protected PayloadReader initialValue() {
+            return codec.newReader();
+        }
+    }
+}
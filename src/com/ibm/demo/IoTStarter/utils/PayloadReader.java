@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+/**
+ * Pull reader for received message payloads. The reader walks the payload one token at a
+ * time, directly on the received bytes.
+ */
+public interface PayloadReader {
+
+    int BEGIN_OBJECT = 1;
+    int END_OBJECT = 2;
+    int BEGIN_ARRAY = 3;
+    int END_ARRAY = 4;
+    int NAME = 5;
+    int STRING = 6;
+    int NUMBER = 7;
+    int BOOLEAN = 8;
+    int NULL = 9;
+    int END_DOCUMENT = 10;
+
+    /**
+     * Start reading a new payload.
+     *
+     * @param payload Buffer containing the payload.
+     * @param offset  Offset of the payload in the buffer.
+     * @param length  Length of the payload.
+     */
+    void reset(byte[] payload, int offset, int length);
+
+    /**
+     * Advance to the next token.
+     *
+     * @return The type of the token.
+     * @throws JSONException If the payload is malformed.
+     */
+    int next() throws JSONException;
+
+    /**
+     * Skip the value following the current NAME token, including any nested members.
+     *
+     * @throws JSONException If the payload is malformed.
+     */
+    void skipValue() throws JSONException;
+
+    /**
+     * @param name ASCII bytes of a member name.
+     * @return True if the current NAME token equals the name.
+     */
+    boolean nameEquals(byte[] name);
+
+    /**
+     * @return The current NAME or STRING token as a string.
+     */
+    String getString();
+
+    /**
+     * @return The current NUMBER token. A STRING token containing a number is converted.
+     * @throws JSONException If the current token is not numeric.
+     */
+    double getDouble() throws JSONException;
+
+    boolean getBoolean();
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Counts of what became of the messages of a topic handed to a MessagePublisher that limits
+ * its rate. Implemented by MqttHandler, so that the LoadGenerator measures the messages of
+ * its topic that reached the MQTT client rather than the calls to publish().
+ */
+public interface PublishCounts {
+
+    /**
+     * @param topic A topic messages were published to.
+     * @return The number of messages of the topic handed to the MQTT client.
+     */
+    long getSentCount(String topic);
+
+    /**
+     * @param topic A topic messages were published to.
+     * @return The number of messages of the topic replaced by a later message.
+     */
+    long getCoalescedCount(String topic);
+
+    /**
+     * @param topic A topic messages were published to.
+     * @return The number of messages of the topic dropped because they exceeded the rate.
+     */
+    long getDroppedCount(String topic);
+}
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of published messages with a token bucket per topic and a global token
+ * bucket shared by all topics. A message may be published when both buckets have a token.
+ *
+ * What happens to a message that exceeds the rate depends on the policy of its event:
+ * QUEUE stores it in the journal, which publishes it at the global rate, COALESCE_LATEST
+ * keeps only the latest message of the topic and publishes it once a token is available,
+ * and DROP discards the message. None of them makes the publishing thread wait.
+ */
+public class PublishLimiter {
+    private final static String TAG = PublishLimiter.class.getName();
+
+    private final Context context;
+    private final TokenBucket global = new TokenBucket(Constants.RATE_GLOBAL_PER_SECOND, Constants.RATE_GLOBAL_BURST);
+    private final ConcurrentHashMap<String, TopicState> topics = new ConcurrentHashMap<String, TopicState>();
+    private final ConcurrentHashMap<String, Constants.RatePolicy> policies = new ConcurrentHashMap<String, Constants.RatePolicy>();
+    private final ScheduledExecutorService coalesceExecutor = TelemetryScheduler.getInstance().getExecutor();
+
+    private volatile double globalRate = Constants.RATE_GLOBAL_PER_SECOND;
+    private volatile int globalBurst = Constants.RATE_GLOBAL_BURST;
+    private volatile double topicRate = Constants.RATE_TOPIC_PER_SECOND;
+    private volatile int topicBurst = Constants.RATE_TOPIC_BURST;
+    private volatile Constants.RatePolicy defaultPolicy = Constants.RatePolicy.QUEUE;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+
+    public PublishLimiter(Context context) {
+        this.context = context;
+        // single status samples are only interesting while they are current. Accel and touch
+        // messages are batches of samples from the TelemetryBatcher, which are all queued.
+        policies.put(Constants.STATUS_EVENT, Constants.RatePolicy.COALESCE_LATEST);
+    }
+
+    /**
+     * Take a token for a message from the bucket of its topic and from the global bucket.
+     *
+     * @param topic The topic the message is published to.
+     * @return True if the message may be published now.
+     */
+    public boolean tryAcquire(String topic) {
+        TopicState state = getState(topic);
+        if (!state.bucket.tryAcquire()) {
+            return false;
+        }
+        if (!global.tryAcquire()) {
+            state.bucket.refund();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait, without limit, for a token from the global bucket. Used for messages that have
+     * already been admitted, such as those stored in the journal.
+     *
+     * @return True if a token was taken, false if the thread was interrupted.
+     */
+    public boolean acquireGlobal() {
+        while (!global.tryAcquire()) {
+            if (!sleep(global.nanosUntilAvailable())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keep a message that exceeds the rate as the latest message of its topic, replacing
+     * any message kept before, and publish it once a token is available.
+     *
+     * @param topic    The topic the message is published to.
+     * @param payload  Buffer containing the message. The message is copied.
+     * @param offset   Offset of the message in the buffer.
+     * @param length   Length of the message.
+     * @param retained True if the retained flag is required.
+     * @param qos      Quality of service.
+     * @param enqueueNanos The System.nanoTime() at which the message was published.
+     */
+    public void coalesce(String topic, byte[] payload, int offset, int length, boolean retained, int qos, long enqueueNanos) {
+        TopicState state = getState(topic);
+        synchronized (state) {
+            if (state.pending) {
+                coalescedCount.incrementAndGet();
+                state.coalescedCount++;
+            }
+            if (state.payload.length < length) {
+                state.payload = Arrays.copyOf(state.payload, Math.max(length, state.payload.length * 2));
+            }
+            System.arraycopy(payload, offset, state.payload, 0, length);
+            state.length = length;
+            state.retained = retained;
+            state.qos = qos;
+            state.enqueueNanos = enqueueNanos;
+            state.pending = true;
+            if (!state.scheduled) {
+                state.scheduled = true;
+                schedule(state);
+            }
+        }
+    }
+
+    /**
+     * @param topic The topic the message is published to.
+     * @return The policy for messages that exceed the rate.
+     */
+    public Constants.RatePolicy getPolicy(String topic) {
+        Constants.RatePolicy policy = policies.get(getState(topic).event);
+        return policy != null ? policy : defaultPolicy;
+    }
+
+    /**
+     * @param event  The event to set the policy for.
+     * @param policy The policy for messages of the event that exceed the rate.
+     */
+    public void setPolicy(String event, Constants.RatePolicy policy) {
+        policies.put(event, policy);
+    }
+
+    /**
+     * @param policy The policy for events without a policy of their own.
+     */
+    public void setDefaultPolicy(Constants.RatePolicy policy) {
+        defaultPolicy = policy;
+    }
+
+    /**
+     * @param topic The topic to check.
+     * @return True if a message to the topic would exceed the rate now. Producers can use
+     * this to reduce or defer what they publish.
+     */
+    public boolean isLimited(String topic) {
+        return getState(topic).bucket.getAvailable() < 1 || global.getAvailable() < 1;
+    }
+
+    /**
+     * @return True if the global rate is exhausted.
+     */
+    public boolean isLimited() {
+        return global.getAvailable() < 1;
+    }
+
+    /**
+     * @param ratePerSecond The sustained number of messages per second for all topics together.
+     * @param burst         The number of messages that may be published at once.
+     */
+    public void setGlobalRate(double ratePerSecond, int burst) {
+        globalRate = ratePerSecond;
+        globalBurst = burst;
+        global.configure(ratePerSecond, burst);
+    }
+
+    public double getGlobalRate() {
+        return globalRate;
+    }
+
+    public int getGlobalBurst() {
+        return globalBurst;
+    }
+
+    /**
+     * @param ratePerSecond The sustained number of messages per second for each topic.
+     * @param burst         The number of messages that may be published at once to a topic.
+     */
+    public void setTopicRate(double ratePerSecond, int burst) {
+        topicRate = ratePerSecond;
+        topicBurst = burst;
+        for (TopicState state : topics.values()) {
+            state.bucket.configure(ratePerSecond, burst);
+        }
+    }
+
+    public double getTopicRate() {
+        return topicRate;
+    }
+
+    public int getTopicBurst() {
+        return topicBurst;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of messages replaced by a later message of the same topic.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @param topic A topic messages were published to.
+     * @return The number of messages of the topic dropped because they exceeded the rate.
+     */
+    public long getDroppedCount(String topic) {
+        TopicState state = getState(topic);
+        synchronized (state) {
+            return state.droppedCount;
+        }
+    }
+
+    /**
+     * @param topic A topic messages were published to.
+     * @return The number of messages of the topic replaced by a later message.
+     */
+    public long getCoalescedCount(String topic) {
+        TopicState state = getState(topic);
+        synchronized (state) {
+            return state.coalescedCount;
+        }
+    }
+
+    /**
+     * @return The number of messages that exceeded the rate and were queued in the journal.
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * Record a message dropped because it exceeded the rate.
+     *
+     * @param topic The topic of the message.
+     */
+    void countDropped(String topic) {
+        droppedCount.incrementAndGet();
+        TopicState state = getState(topic);
+        synchronized (state) {
+            state.droppedCount++;
+        }
+    }
+
+    /**
+     * Record a message queued in the journal because it exceeded the rate.
+     */
+    void countQueued() {
+        queuedCount.incrementAndGet();
+    }
+
+    private TopicState getState(String topic) {
+        TopicState state = topics.get(topic);
+        if (state == null) {
+            TopicState created = new TopicState(topic, TopicFactory.getName(topic), new TokenBucket(topicRate, topicBurst));
+            state = topics.putIfAbsent(topic, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private void schedule(TopicState state) {
+        long wait = Math.max(state.bucket.nanosUntilAvailable(), global.nanosUntilAvailable());
+        coalesceExecutor.schedule(new CoalesceTask(state), wait, TimeUnit.NANOSECONDS);
+    }
+
+    private static boolean sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(Math.max(nanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Publishes the latest message of a topic once tokens are available.
+     */
+    private class CoalesceTask implements Runnable {
+        private final TopicState state;
+
+        CoalesceTask(TopicState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void run() {
+            synchronized (state) {
+                if (!state.pending) {
+                    state.scheduled = false;
+                    return;
+                }
+                if (state.bucket.nanosUntilAvailable() > 0 || global.nanosUntilAvailable() > 0) {
+                    schedule(state);
+                    return;
+                }
+                state.pending = false;
+                state.scheduled = false;
+                Log.v(TAG, ".CoalesceTask.run() - publishing latest message to " + state.topic);
+                // if the tokens were taken in the meantime the message is coalesced again
+                MqttHandler.getInstance(context).publish(state.topic, state.payload, 0, state.length, state.retained, state.qos, state.enqueueNanos);
+            }
+        }
+    }
+
+    /**
+     * The bucket of a topic and its latest message waiting to be published.
+     */
+    private static class TopicState {
+        final String topic;
+        final String event;
+        final TokenBucket bucket;
+        byte[] payload = new byte[256];
+        int length;
+        boolean retained;
+        int qos;
+        long enqueueNanos;
+        boolean pending;
+        boolean scheduled;
+        long coalescedCount;
+        long droppedCount;
+
+        TopicState(String topic, String event, TokenBucket bucket) {
+            this.topic = topic;
+            this.event = event;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rate of a value over a rolling time window, e.g. messages or bytes per second. The window
+ * is a ring of buckets, each covering a fixed interval and tagged with the interval it
+ * currently counts. Adding a value to a bucket of an earlier interval first resets it, so
+ * the rate only covers the intervals of the window without a timer to expire old values.
+ *
+ * Adding is lock-free. A value added concurrently with the reset of its bucket may be lost,
+ * which only affects the rate around interval boundaries.
+ */
+public class RateWindow {
+
+    private final long bucketMillis;
+    private final int buckets;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray intervals;
+    private final long start;
+
+    /**
+     * @param windowMillis The length of the window, in milliseconds.
+     * @param buckets      The number of buckets the window is split in.
+     */
+    public RateWindow(long windowMillis, int buckets) {
+        this.bucketMillis = Math.max(1, windowMillis / buckets);
+        this.buckets = buckets;
+        counts = new AtomicLongArray(buckets);
+        intervals = new AtomicLongArray(buckets);
+        start = now();
+        long interval = start / bucketMillis;
+        for (int i = 0; i < buckets; i++) {
+            intervals.set(i, interval);
+        }
+    }
+
+    public void add(long value) {
+        add(value, now());
+    }
+
+    /**
+     * @param value     The value to add.
+     * @param nowMillis The current time, from the same clock as now().
+     */
+    public void add(long value, long nowMillis) {
+        long interval = nowMillis / bucketMillis;
+        // the clock may be negative
+        int index = (int) (((interval % buckets) + buckets) % buckets);
+        long current = intervals.get(index);
+        if (current != interval && intervals.compareAndSet(index, current, interval)) {
+            counts.set(index, 0);
+        }
+        counts.addAndGet(index, value);
+    }
+
+    /**
+     * @return The rate over the window, per second.
+     */
+    public double getRate() {
+        return getRate(now());
+    }
+
+    /**
+     * @param nowMillis The current time, from the same clock as now().
+     * @return The rate over the window, per second.
+     */
+    public double getRate(long nowMillis) {
+        long interval = nowMillis / bucketMillis;
+        long sum = 0;
+        for (int i = 0; i < buckets; i++) {
+            long age = interval - intervals.get(i);
+            if (age >= 0 && age < buckets) {
+                sum += counts.get(i);
+            }
+        }
+        // the window covers the complete buckets before the current one and the current one so far,
+        // and at least one bucket so that the first values do not show as a burst
+        long covered = Math.min((buckets - 1) * bucketMillis + nowMillis % bucketMillis + 1, nowMillis - start + 1);
+        covered = Math.max(covered, bucketMillis);
+        return sum * 1000.0 / covered;
+    }
+
+    /**
+     * @return The current time in milliseconds, from a monotonic clock.
+     */
+    public static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Receives sensor samples, from the SensorManager or from a SyntheticSource.
+ */
+public interface SampleListener {
+
+    /**
+     * @param type      The Android sensor type of the sample, e.g. Sensor.TYPE_ACCELEROMETER.
+     * @param timestamp The time of the sample, in nanoseconds.
+     * @param values    The values of the sample. The array may be reused after the call returns.
+     */
+    void onSample(int type, long timestamp, float[] values);
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Preallocated ring buffer of multi-axis sensor samples, stored as primitive floats with
+ * their timestamps. There is a single writer, the sensor thread, and a single reader, the
+ * publisher. Neither side locks or allocates. When the reader falls behind, the oldest
+ * samples are overwritten and counted as lost.
+ */
+public class SampleRing {
+
+    private final int capacity;
+    private final int axes;
+    private final float[] values;
+    private final long[] timestamps;
+
+    // sequence numbers of the next sample to write and to read. Only the reader writes tail,
+    // it is volatile so that its write orders the reads of the samples before head is read again
+    private volatile long head;
+    private volatile long tail;
+    private long lostCount;
+
+    /**
+     * @param capacity The number of samples the ring holds, rounded up to a power of two.
+     * @param axes     The number of values in each sample.
+     */
+    public SampleRing(int capacity, int axes) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = size;
+        this.axes = axes;
+        values = new float[size * axes];
+        timestamps = new long[size];
+    }
+
+    /**
+     * Add a sample. Called by the writer only.
+     *
+     * @param timestamp The timestamp of the sample, e.g. SensorEvent.timestamp.
+     * @param sample    The values of the sample. The first axes values are copied.
+     */
+    public void add(long timestamp, float[] sample) {
+        // the volatile read keeps the writes below after the publication of the previous sample
+        long sequence = head;
+        int slot = (int) sequence & (capacity - 1);
+        timestamps[slot] = timestamp;
+        System.arraycopy(sample, 0, values, slot * axes, axes);
+        // the volatile write publishes the sample to the reader
+        head = sequence + 1;
+    }
+
+    /**
+     * Move all samples added since the last drain into a window. Called by the reader only.
+     *
+     * @param window The window to add the samples to.
+     * @return The number of samples moved.
+     */
+    public int drain(SampleWindow window) {
+        long end = head;
+        long start = tail;
+        if (end - start > capacity) {
+            lostCount += end - start - capacity;
+            start = end - capacity;
+        }
+        int drained = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) sequence & (capacity - 1);
+            long timestamp = timestamps[slot];
+            window.add(timestamp, values, slot * axes);
+            drained++;
+        }
+        tail = end;
+        // samples the writer overwrote while they were read may be torn, so they are discarded.
+        // The writer may be filling the slot of sequence head, which held sequence head - capacity.
+        long overwritten = head - capacity - start + 1;
+        if (overwritten > 0) {
+            int torn = (int) Math.min(overwritten, drained);
+            window.discardOldest(torn);
+            lostCount += torn;
+            drained -= torn;
+        }
+        return drained;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of samples overwritten before they were drained.
+     */
+    public long getLostCount() {
+        return lostCount;
+    }
+}
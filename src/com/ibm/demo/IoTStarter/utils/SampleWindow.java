@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * A window of multi-axis sensor samples drained from a SampleRing, with per axis aggregates:
+ * minimum, maximum, mean, root mean square and standard deviation. The samples themselves
+ * are kept too, so that the window can be published raw. All storage is preallocated.
+ */
+public class SampleWindow {
+
+    private final int capacity;
+    private final int axes;
+    private final float[] values;
+    private final long[] timestamps;
+    private int start;
+    private int end;
+
+    private boolean computed;
+    private final float[] min;
+    private final float[] max;
+    private final double[] mean;
+    private final double[] variance;
+    private final double[] rms;
+
+    /**
+     * @param capacity The largest number of samples in a window.
+     * @param axes     The number of values in each sample.
+     */
+    public SampleWindow(int capacity, int axes) {
+        this.capacity = capacity;
+        this.axes = axes;
+        values = new float[capacity * axes];
+        timestamps = new long[capacity];
+        min = new float[axes];
+        max = new float[axes];
+        mean = new double[axes];
+        variance = new double[axes];
+        rms = new double[axes];
+    }
+
+    /**
+     * Empty the window.
+     */
+    public void reset() {
+        start = 0;
+        end = 0;
+        computed = false;
+    }
+
+    /**
+     * Add a sample. Samples beyond the capacity of the window are ignored.
+     *
+     * @param timestamp The timestamp of the sample.
+     * @param source    Array containing the values of the sample.
+     * @param offset    Offset of the first value in the array.
+     */
+    public void add(long timestamp, float[] source, int offset) {
+        if (end == capacity) {
+            return;
+        }
+        timestamps[end] = timestamp;
+        System.arraycopy(source, offset, values, end * axes, axes);
+        end++;
+        computed = false;
+    }
+
+    /**
+     * Remove the oldest samples from the window.
+     *
+     * @param count The number of samples to remove.
+     */
+    public void discardOldest(int count) {
+        start = Math.min(end, start + count);
+        computed = false;
+    }
+
+    public int getCount() {
+        return end - start;
+    }
+
+    public int getAxes() {
+        return axes;
+    }
+
+    /**
+     * @param index The index of a sample in the window, 0 being the oldest.
+     * @return The timestamp of the sample.
+     */
+    public long getTimestamp(int index) {
+        return timestamps[start + index];
+    }
+
+    /**
+     * @param index The index of a sample in the window, 0 being the oldest.
+     * @param axis  The axis of the value.
+     * @return The value of the sample on the axis.
+     */
+    public float getValue(int index, int axis) {
+        return values[(start + index) * axes + axis];
+    }
+
+    /**
+     * @return The time between the oldest and the newest sample, in the unit of the timestamps.
+     */
+    public long getDuration() {
+        return end - start < 2 ? 0 : timestamps[end - 1] - timestamps[start];
+    }
+
+    public float getMin(int axis) {
+        compute();
+        return min[axis];
+    }
+
+    public float getMax(int axis) {
+        compute();
+        return max[axis];
+    }
+
+    public double getMean(int axis) {
+        compute();
+        return mean[axis];
+    }
+
+    /**
+     * @param axis The axis.
+     * @return The root mean square of the values on the axis.
+     */
+    public double getRms(int axis) {
+        compute();
+        return rms[axis];
+    }
+
+    /**
+     * @param axis The axis.
+     * @return The population standard deviation of the values on the axis.
+     */
+    public double getStdDev(int axis) {
+        compute();
+        return Math.sqrt(variance[axis]);
+    }
+
+    /**
+     * Compute the aggregates in a single pass, using Welford's method for the variance so
+     * that a large constant component such as gravity does not cost precision.
+     */
+    private void compute() {
+        if (computed) {
+            return;
+        }
+        int count = end - start;
+        for (int axis = 0; axis < axes; axis++) {
+            float low = Float.NaN;
+            float high = Float.NaN;
+            double m = 0;
+            double m2 = 0;
+            for (int i = 0; i < count; i++) {
+                float value = values[(start + i) * axes + axis];
+                if (i == 0 || value < low) {
+                    low = value;
+                }
+                if (i == 0 || value > high) {
+                    high = value;
+                }
+                double delta = value - m;
+                m += delta / (i + 1);
+                m2 += delta * (value - m);
+            }
+            min[axis] = low;
+            max[axis] = high;
+            mean[axis] = count > 0 ? m : Double.NaN;
+            variance[axis] = count > 0 ? m2 / count : Double.NaN;
+            rms[axis] = count > 0 ? Math.sqrt(variance[axis] + m * m) : Double.NaN;
+        }
+        computed = true;
+    }
+}
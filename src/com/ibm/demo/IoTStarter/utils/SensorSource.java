@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * A sensor published through the shared sensor pipeline of DeviceSensor. A source names the
+ * Android sensor type it reads, the event it is published as, and the fields of its samples.
+ * The latest sample is kept in a preallocated FloatSnapshot laid out as the fields, written
+ * by the sensor thread and read by the publisher.
+ */
+public class SensorSource {
+
+    private final String name;
+    private final int type;
+    private final String[] fields;
+    private final FloatSnapshot snapshot;
+    // owned by the publisher
+    private final float[] sample;
+
+    private volatile int rate = Constants.SENSOR_SOURCE_RATE;
+    private volatile boolean enabled;
+    private volatile boolean hasSample;
+
+    /**
+     * @param name   The name of the source, which is also the event it is published as.
+     * @param type   The Android sensor type, e.g. Sensor.TYPE_PRESSURE.
+     * @param fields The names of the values of a sample, in the order of SensorEvent.values.
+     */
+    public SensorSource(String name, int type, String... fields) {
+        this.name = name;
+        this.type = type;
+        this.fields = fields.clone();
+        snapshot = new FloatSnapshot(fields.length);
+        sample = new float[fields.length];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    public String getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * @return The sampling period, in microseconds.
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate The sampling period, in microseconds.
+     */
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            hasSample = false;
+        }
+    }
+
+    /**
+     * @return True once a sample was received since the source was enabled.
+     */
+    public boolean hasSample() {
+        return hasSample;
+    }
+
+    /**
+     * Store the latest sample. Called by the sensor thread.
+     *
+     * @param values The values of the sensor event, at least one per field.
+     */
+    public void update(float[] values) {
+        snapshot.beginWrite();
+        snapshot.set(0, values, 0, fields.length);
+        snapshot.endWrite();
+        hasSample = true;
+    }
+
+    /**
+     * Read the latest sample. Called by the publisher.
+     *
+     * @return The preallocated sample array, valid until the next call.
+     */
+    public float[] read() {
+        snapshot.read(sample);
+        return sample;
+    }
+}
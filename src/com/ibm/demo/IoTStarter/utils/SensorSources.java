@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.hardware.Sensor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the sensor sources that DeviceSensor can sample and publish besides the
+ * accelerometer. The built-in sources cover the common Android sensors, and others can be
+ * registered. Sources are enabled per profile, each with its own sampling rate.
+ */
+public class SensorSources {
+    private final static String TAG = SensorSources.class.getName();
+
+    private final static int MAX_TYPE = 64;
+
+    private final Map<String, SensorSource> sources = new HashMap<String, SensorSource>();
+    private final SensorSource[] byType = new SensorSource[MAX_TYPE];
+    private volatile SensorSource[] enabled = new SensorSource[0];
+
+    public SensorSources() {
+        register(new SensorSource(Constants.GYROSCOPE_EVENT, Sensor.TYPE_GYROSCOPE, "x", "y", "z"));
+        register(new SensorSource(Constants.GRAVITY_EVENT, Sensor.TYPE_GRAVITY, "x", "y", "z"));
+        register(new SensorSource(Constants.LINEAR_ACCEL_EVENT, Sensor.TYPE_LINEAR_ACCELERATION, "x", "y", "z"));
+        register(new SensorSource(Constants.ROTATION_EVENT, Sensor.TYPE_ROTATION_VECTOR, "x", "y", "z"));
+        register(new SensorSource(Constants.PRESSURE_EVENT, Sensor.TYPE_PRESSURE, "hpa"));
+        register(new SensorSource(Constants.LIGHT_LEVEL_EVENT, Sensor.TYPE_LIGHT, "lux"));
+        register(new SensorSource(Constants.PROXIMITY_EVENT, Sensor.TYPE_PROXIMITY, "cm"));
+        register(new SensorSource(Constants.HUMIDITY_EVENT, Sensor.TYPE_RELATIVE_HUMIDITY, "percent"));
+        register(new SensorSource(Constants.TEMPERATURE_EVENT, Sensor.TYPE_AMBIENT_TEMPERATURE, "celsius"));
+    }
+
+    /**
+     * Add a source, replacing any source with the same name or sensor type.
+     *
+     * @param source The source to add.
+     */
+    public synchronized void register(SensorSource source) {
+        if (source.getType() < 0 || source.getType() >= MAX_TYPE) {
+            throw new IllegalArgumentException("Unsupported sensor type " + source.getType());
+        }
+        SensorSource previous = byType[source.getType()];
+        if (previous != null) {
+            sources.remove(previous.getName());
+        }
+        sources.put(source.getName(), source);
+        byType[source.getType()] = source;
+        updateEnabled();
+    }
+
+    /**
+     * @param name The name of the source.
+     * @return The source, or null if there is none with the name.
+     */
+    public synchronized SensorSource get(String name) {
+        return sources.get(name);
+    }
+
+    /**
+     * @param type An Android sensor type.
+     * @return The enabled source reading the sensor type, or null if there is none.
+     */
+    public SensorSource getEnabled(int type) {
+        if (type < 0 || type >= MAX_TYPE) {
+            return null;
+        }
+        SensorSource source = byType[type];
+        return source != null && source.isEnabled() ? source : null;
+    }
+
+    /**
+     * @return The enabled sources. The array must not be modified.
+     */
+    public SensorSource[] getEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param name The name of the source.
+     * @param rate The sampling period, in microseconds.
+     * @return False if there is no source with the name.
+     */
+    public synchronized boolean enable(String name, int rate) {
+        SensorSource source = sources.get(name);
+        if (source == null) {
+            return false;
+        }
+        source.setRate(rate);
+        source.setEnabled(true);
+        updateEnabled();
+        return true;
+    }
+
+    /**
+     * @param name The name of the source.
+     */
+    public synchronized void disable(String name) {
+        SensorSource source = sources.get(name);
+        if (source != null) {
+            source.setEnabled(false);
+            updateEnabled();
+        }
+    }
+
+    /**
+     * Enable exactly the sources of a profile.
+     *
+     * @param rates The sampling period in microseconds of each source to enable, by name.
+     */
+    public synchronized void configure(Map<String, Integer> rates) {
+        for (SensorSource source : sources.values()) {
+            Integer rate = rates.get(source.getName());
+            if (rate != null) {
+                source.setRate(rate);
+            }
+            source.setEnabled(rate != null);
+        }
+        for (String name : rates.keySet()) {
+            if (!sources.containsKey(name)) {
+                Log.w(TAG, ".configure() - unknown sensor source " + name);
+            }
+        }
+        updateEnabled();
+    }
+
+    private void updateEnabled() {
+        List<SensorSource> list = new ArrayList<SensorSource>();
+        for (SensorSource source : sources.values()) {
+            if (source.isEnabled()) {
+                list.add(source);
+            }
+        }
+        enabled = list.toArray(new SensorSource[list.size()]);
+    }
+}
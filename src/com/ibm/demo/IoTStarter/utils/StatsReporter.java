@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.ibm.demo.IoTStarter.IoTStarterApplication;
+
+import java.lang.reflect.Method;
+
+/**
+ * Publishes a stats event with the performance of the device at a configurable interval,
+ * so that it can be monitored across a fleet of devices.
+ *
+ * Each report covers the interval since the previous one: rates and drop counts are the
+ * differences of the cumulative counters kept by the components, and ack latencies come
+ * from the interval histogram of the LatencyTracker. All values are read on the scheduler
+ * thread when the report is built, so the publishing and sensor paths do no extra work.
+ */
+public class StatsReporter implements Runnable {
+    private final static String TAG = StatsReporter.class.getName();
+
+    // runtime statistics of ART, available from Android 6.0
+    private final static String GC_COUNT_STAT = "art.gc.gc-count";
+    private final static String GC_TIME_STAT = "art.gc.gc-time";
+
+    private static StatsReporter instance;
+    private final Context context;
+    private final IoTStarterApplication app;
+    private TelemetryScheduler.Registration registration;
+    private volatile boolean enabled = Constants.STATS_ENABLED;
+    private long period = Constants.STATS_PERIOD;
+    private final Method runtimeStat = getRuntimeStatMethod();
+
+    // Cumulative values at the previous report
+    private long lastTime;
+    private long lastPublished;
+    private long lastReceived;
+    private long lastPublishedBytes;
+    private long lastReceivedBytes;
+    private long lastConnects;
+    private long lastConnectionLosses;
+    private long lastLimiterDropped;
+    private long lastCoalesced;
+    private long lastDispatchDropped;
+    private long lastJournalDropped;
+    private long lastLostSamples;
+    private long lastGcCount;
+    private long lastGcTime;
+    private LatencyHistogram spareLatencies = new LatencyHistogram();
+
+    // Values of the current report
+    private double interval;
+    private double publishRate;
+    private double receiveRate;
+    private double publishByteRate;
+    private double receiveByteRate;
+    private long journalDepth;
+    private int dispatchDepth;
+    private long limiterDropped;
+    private long coalesced;
+    private long dispatchDropped;
+    private long journalDropped;
+    private long lostSamples;
+    private LatencyHistogram latencies;
+    private long connects;
+    private long connectionLosses;
+    private long heapUsed;
+    private long heapMax;
+    private long gcCount = -1;
+    private long gcTime = -1;
+
+    private StatsReporter(Context context) {
+        this.context = context;
+        this.app = (IoTStarterApplication) context.getApplicationContext();
+    }
+
+    /**
+     * @param context The application context for the object.
+     * @return The StatsReporter object for the application.
+     */
+    public static synchronized StatsReporter getInstance(Context context) {
+        if (instance == null) {
+            instance = new StatsReporter(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Start publishing reports, the first one after a period.
+     */
+    public synchronized void start() {
+        if (!enabled || registration != null) {
+            return;
+        }
+        Log.d(TAG, ".start() entered");
+        collect();
+        registration = TelemetryScheduler.getInstance().register(Constants.STATS_EVENT, this, period);
+    }
+
+    public synchronized void stop() {
+        if (registration != null) {
+            Log.d(TAG, ".stop() entered");
+            registration.cancel();
+            registration = null;
+        }
+    }
+
+    /**
+     * @param enabled True to publish reports from the next start(), false to stop publishing them.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            stop();
+        }
+    }
+
+    /**
+     * @param periodMillis The interval between reports, in milliseconds.
+     */
+    public synchronized void setPeriod(long periodMillis) {
+        period = periodMillis;
+        if (registration != null) {
+            registration.setPeriod(periodMillis);
+        }
+    }
+
+    public synchronized long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Build and publish a report.
+     */
+    @Override
+    public synchronized void run() {
+        Log.v(TAG, ".run() entered");
+        collect();
+        PayloadCodec codec = PayloadCodecs.getEventCodec(Constants.STATS_EVENT);
+        MessageWriter writer = MessageFactory.writeStatsMessage(codec.getWriter(), this);
+        MqttHandler.getInstance(context).publish(TopicFactory.getEventTopic(Constants.STATS_EVENT, codec),
+                writer.getBuffer(), 0, writer.getLength(), false, 0);
+    }
+
+    /**
+     * Compute the values of the interval since the previous call.
+     */
+    private void collect() {
+        long now = SystemClock.elapsedRealtime();
+        interval = (now - lastTime) / 1000.0;
+        lastTime = now;
+
+        MetricsRegistry.Snapshot metrics = app.getMetrics().snapshot();
+        long publishedBytes = 0;
+        long receivedBytes = 0;
+        for (MetricsRegistry.TopicSnapshot topic : metrics.getTopics()) {
+            if (topic.getDirection() == Constants.Direction.OUTBOUND) {
+                publishedBytes += topic.getBytes();
+            } else {
+                receivedBytes += topic.getBytes();
+            }
+        }
+        publishRate = rate(metrics.getPublishCount() - lastPublished);
+        receiveRate = rate(metrics.getReceiveCount() - lastReceived);
+        publishByteRate = rate(publishedBytes - lastPublishedBytes);
+        receiveByteRate = rate(receivedBytes - lastReceivedBytes);
+        lastPublished = metrics.getPublishCount();
+        lastReceived = metrics.getReceiveCount();
+        lastPublishedBytes = publishedBytes;
+        lastReceivedBytes = receivedBytes;
+
+        long connectsTotal = metrics.getCounter(Constants.METRIC_CONNECTS);
+        long lossesTotal = metrics.getCounter(Constants.METRIC_CONNECTION_LOSSES);
+        connects = connectsTotal - lastConnects;
+        connectionLosses = lossesTotal - lastConnectionLosses;
+        lastConnects = connectsTotal;
+        lastConnectionLosses = lossesTotal;
+
+        MqttHandler mqttHandler = MqttHandler.getInstance(context);
+        PublishLimiter limiter = mqttHandler.getLimiter();
+        MessageJournal journal = mqttHandler.getJournal();
+        CommandDispatcher dispatcher = MessageConductor.getInstance(context).getDispatcher();
+        DeviceSensor deviceSensor = app.getDeviceSensor();
+        long limiterDroppedTotal = limiter.getDroppedCount();
+        long coalescedTotal = limiter.getCoalescedCount();
+        long dispatchDroppedTotal = dispatcher.getDroppedCount();
+        long journalDroppedTotal = journal.getDroppedCount() + journal.getExpiredCount();
+        long lostSamplesTotal = deviceSensor == null ? 0 : deviceSensor.getLostSampleCount();
+        limiterDropped = limiterDroppedTotal - lastLimiterDropped;
+        coalesced = coalescedTotal - lastCoalesced;
+        dispatchDropped = dispatchDroppedTotal - lastDispatchDropped;
+        journalDropped = journalDroppedTotal - lastJournalDropped;
+        lostSamples = Math.max(0, lostSamplesTotal - lastLostSamples);
+        lastLimiterDropped = limiterDroppedTotal;
+        lastCoalesced = coalescedTotal;
+        lastDispatchDropped = dispatchDroppedTotal;
+        lastJournalDropped = journalDroppedTotal;
+        lastLostSamples = lostSamplesTotal;
+        journalDepth = journal.getPendingCount();
+        dispatchDepth = dispatcher.getQueueDepth();
+
+        // the histogram of the previous interval is reused for the next one
+        spareLatencies.reset();
+        LatencyHistogram ended = mqttHandler.getLatencyTracker().swapInterval(spareLatencies);
+        spareLatencies = latencies == null ? new LatencyHistogram() : latencies;
+        latencies = ended;
+
+        Runtime runtime = Runtime.getRuntime();
+        heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        heapMax = runtime.maxMemory();
+        long gcCountTotal = getRuntimeStat(GC_COUNT_STAT);
+        long gcTimeTotal = getRuntimeStat(GC_TIME_STAT);
+        gcCount = gcCountTotal < 0 ? -1 : gcCountTotal - lastGcCount;
+        gcTime = gcTimeTotal < 0 ? -1 : gcTimeTotal - lastGcTime;
+        lastGcCount = gcCountTotal;
+        lastGcTime = gcTimeTotal;
+    }
+
+    private double rate(long delta) {
+        return interval > 0 ? delta / interval : 0;
+    }
+
+    private static Method getRuntimeStatMethod() {
+        try {
+            return Class.forName("android.os.Debug").getMethod("getRuntimeStat", String.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The value of a runtime statistic, or -1 if it is not available.
+     */
+    private long getRuntimeStat(String name) {
+        if (runtimeStat == null) {
+            return -1;
+        }
+        try {
+            Object value = runtimeStat.invoke(null, name);
+            return value == null ? -1 : Long.parseLong((String) value);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The length of the interval of the report, in seconds.
+     */
+    public double getInterval() {
+        return interval;
+    }
+
+    public double getPublishRate() {
+        return publishRate;
+    }
+
+    public double getReceiveRate() {
+        return receiveRate;
+    }
+
+    public double getPublishByteRate() {
+        return publishByteRate;
+    }
+
+    public double getReceiveByteRate() {
+        return receiveByteRate;
+    }
+
+    /**
+     * @return The number of messages waiting in the journal.
+     */
+    public long getJournalDepth() {
+        return journalDepth;
+    }
+
+    /**
+     * @return The number of commands waiting in the dispatcher queues.
+     */
+    public int getDispatchDepth() {
+        return dispatchDepth;
+    }
+
+    public long getLimiterDropped() {
+        return limiterDropped;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getDispatchDropped() {
+        return dispatchDropped;
+    }
+
+    /**
+     * @return The number of journaled messages dropped for lack of space or expired.
+     */
+    public long getJournalDropped() {
+        return journalDropped;
+    }
+
+    /**
+     * @return The number of high rate samples overwritten before they were published.
+     */
+    public long getLostSamples() {
+        return lostSamples;
+    }
+
+    /**
+     * @return The publish to acknowledgement latencies of the interval, in microseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getConnects() {
+        return connects;
+    }
+
+    public long getConnectionLosses() {
+        return connectionLosses;
+    }
+
+    public long getHeapUsed() {
+        return heapUsed;
+    }
+
+    public long getHeapMax() {
+        return heapMax;
+    }
+
+    /**
+     * @return The number of garbage collections in the interval, or -1 if not available.
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * @return The time spent in garbage collections in the interval in milliseconds, or -1 if not available.
+     */
+    public long getGcTime() {
+        return gcTime;
+    }
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without contending on a single value. Each thread
+ * adds to one of several cells chosen by its id, and the value of the counter is the sum of
+ * the cells. The cells are a cache line apart in an AtomicLongArray, so that threads adding
+ * to different cells do not invalidate each other's cache lines.
+ *
+ * This is a fixed size variant of the LongAdder of later Java versions, which is not
+ * available on Android. The sum is not an atomic snapshot while other threads add to it.
+ */
+public class StripedCounter {
+
+    // longs per cache line
+    private final static int PADDING = 8;
+    private final static int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < 2 * processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * @param value The value to add, may be negative.
+     */
+    public void add(long value) {
+        cells.addAndGet(cell(), value);
+    }
+
+    /**
+     * @return The sum of all values added since the counter was created or last reset.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Set the counter to zero. Values added concurrently may or may not be kept.
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deterministic source of sensor samples, for driving the sensor and publish pipeline at a
+ * controlled rate without physical sensors. Samples are either a waveform per axis, with
+ * optional seeded noise, or rows replayed in a loop from a CSV recording. The n-th sample
+ * has the timestamp start + n * period, so a run produces the same samples whatever the
+ * load of the device.
+ *
+ * The source either runs on its own thread, emitting samples when they are due and catching
+ * up with every overdue sample when it falls behind, or emits samples synchronously with
+ * emit(). It does not use any Android API, so that it can be used from JVM tests.
+ */
+public class SyntheticSource {
+
+    private final int type;
+    private final int axes;
+    private final float[] values;
+
+    private Constants.Waveform waveform = Constants.Waveform.SINE;
+    private double amplitude = 1;
+    private double frequency = 1;
+    private final double[] offsets;
+    private double noise;
+    private long seed;
+    private Random random;
+    private float[] replay;
+    private int replayRows;
+
+    private volatile double rate = 50;
+    private long index;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile long maxLag;
+
+    /**
+     * @param type The Android sensor type of the samples, e.g. Sensor.TYPE_ACCELEROMETER.
+     * @param axes The number of values per sample.
+     */
+    public SyntheticSource(int type, int axes) {
+        this.type = type;
+        this.axes = axes;
+        values = new float[axes];
+        offsets = new double[axes];
+        random = new Random(seed);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Generate a waveform on every axis. The axes are shifted by a third of a period each.
+     *
+     * @param waveform  The shape of the waveform.
+     * @param amplitude The amplitude, in the unit of the sensor.
+     * @param frequency The frequency, in Hz.
+     */
+    public synchronized void setWaveform(Constants.Waveform waveform, double amplitude, double frequency) {
+        this.waveform = waveform;
+        this.amplitude = amplitude;
+        this.frequency = frequency;
+        replay = null;
+    }
+
+    /**
+     * @param axis   The axis.
+     * @param offset The value added to the axis, e.g. gravity on the z axis.
+     */
+    public synchronized void setOffset(int axis, double offset) {
+        offsets[axis] = offset;
+    }
+
+    /**
+     * Add gaussian noise to the waveform.
+     *
+     * @param stddev The standard deviation of the noise, 0 for none.
+     * @param seed   The seed of the noise, so that runs are repeatable.
+     */
+    public synchronized void setNoise(double stddev, long seed) {
+        this.noise = stddev;
+        this.seed = seed;
+        random = new Random(seed);
+    }
+
+    /**
+     * Replay recorded samples instead of a waveform. Each line holds the values of one sample
+     * separated by commas, optionally preceded by a timestamp column, which is ignored.
+     * Empty lines and lines starting with # are skipped.
+     *
+     * @param reader The CSV recording.
+     * @throws IOException If the recording cannot be read or a line is malformed.
+     */
+    public synchronized void loadCsv(Reader reader) throws IOException {
+        List<float[]> rows = new ArrayList<float[]>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] columns = line.split(",");
+            int first = columns.length - axes;
+            if (first != 0 && first != 1) {
+                throw new IOException("Expected " + axes + " values on line " + lineNumber);
+            }
+            float[] row = new float[axes];
+            try {
+                for (int axis = 0; axis < axes; axis++) {
+                    row[axis] = Float.parseFloat(columns[first + axis].trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed value on line " + lineNumber);
+            }
+            rows.add(row);
+        }
+        if (rows.isEmpty()) {
+            throw new IOException("No samples in recording");
+        }
+        replay = new float[rows.size() * axes];
+        for (int i = 0; i < rows.size(); i++) {
+            System.arraycopy(rows.get(i), 0, replay, i * axes, axes);
+        }
+        replayRows = rows.size();
+    }
+
+    /**
+     * @param rate The number of samples per second. Set before the source is started.
+     */
+    public void setRate(double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Restart the samples from the first one, and the noise from its seed.
+     */
+    public synchronized void rewind() {
+        index = 0;
+        random = new Random(seed);
+    }
+
+    /**
+     * Compute the next sample.
+     *
+     * @param destination Array receiving the values, at least one per axis.
+     * @return The timestamp of the sample, in nanoseconds from the first sample.
+     */
+    public synchronized long next(float[] destination) {
+        long n = index++;
+        double t = n / rate;
+        if (replay != null) {
+            System.arraycopy(replay, (int) (n % replayRows) * axes, destination, 0, axes);
+        } else {
+            for (int axis = 0; axis < axes; axis++) {
+                double phase = frequency * t + (double) axis / 3;
+                double value = offsets[axis] + amplitude * shape(phase - Math.floor(phase));
+                if (noise > 0) {
+                    value += random.nextGaussian() * noise;
+                }
+                destination[axis] = (float) value;
+            }
+        }
+        return (long) (t * 1e9);
+    }
+
+    /**
+     * @param phase The position in the period, from 0 to 1.
+     * @return The waveform at the position, from -1 to 1.
+     */
+    private double shape(double phase) {
+        switch (waveform) {
+            case SQUARE:
+                return phase < 0.5 ? 1 : -1;
+            case TRIANGLE:
+                return phase < 0.5 ? 4 * phase - 1 : 3 - 4 * phase;
+            case NOISE:
+                return 2 * random.nextDouble() - 1;
+            default:
+                return Math.sin(2 * Math.PI * phase);
+        }
+    }
+
+    /**
+     * Emit samples synchronously, as fast as the listener takes them.
+     *
+     * @param listener The listener receiving the samples.
+     * @param count    The number of samples.
+     */
+    public void emit(SampleListener listener, int count) {
+        for (int i = 0; i < count; i++) {
+            long timestamp = next(values);
+            listener.onSample(type, timestamp, values);
+        }
+    }
+
+    /**
+     * Emit samples at the rate on a new thread until stopped.
+     *
+     * @param listener The listener receiving the samples.
+     */
+    public synchronized void start(final SampleListener listener) {
+        if (running) {
+            return;
+        }
+        running = true;
+        maxLag = 0;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                emitPaced(listener);
+            }
+        }, "SyntheticSource-" + type);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop emitting samples, and wait for the thread to end.
+     */
+    public void stop() {
+        Thread stopped;
+        synchronized (this) {
+            running = false;
+            stopped = thread;
+            thread = null;
+        }
+        if (stopped != null && stopped != Thread.currentThread()) {
+            LockSupport.unpark(stopped);
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The largest delay of a sample behind its due time since the source was started, in nanoseconds.
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    private void emitPaced(SampleListener listener) {
+        long start = System.nanoTime();
+        long emitted = 0;
+        double period = 1e9 / rate;
+        while (running) {
+            long due = start + (long) (emitted * period);
+            long now = System.nanoTime();
+            if (due > now) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            maxLag = Math.max(maxLag, now - due);
+            long timestamp = next(values);
+            listener.onSample(type, timestamp, values);
+            emitted++;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates telemetry samples per topic and publishes them as a single array valued
+ * {"d":[...]} message. A batch is flushed when it reaches the maximum sample count, the
+ * maximum payload size, or when its oldest sample has waited for the maximum latency.
+ * While MqttHandler reports backpressure on the topic, the sample count limit is ignored
+ * so that fewer, larger messages are published.
+ *
+ * Samples are copied into a per topic buffer that is reused between batches. The topic
+ * determines the payload format, so all samples of a batch are encoded with the same codec.
+ */
+public class TelemetryBatcher {
+    private final static String TAG = TelemetryBatcher.class.getName();
+
+    // envelope writers for unbatched samples, per calling thread and payload format
+    private final static ThreadLocal<HashMap<String, MessageWriter>> ENVELOPES = new ThreadLocal<HashMap<String, MessageWriter>>() {
+        @Override
+        protected HashMap<String, MessageWriter> initialValue() {
+            return new HashMap<String, MessageWriter>();
+        }
+    };
+
+    private static TelemetryBatcher instance;
+    private Context context;
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+    private final ScheduledExecutorService flushExecutor = TelemetryScheduler.getInstance().getExecutor();
+
+    private volatile boolean enabled = Constants.BATCH_ENABLED;
+    private volatile int maxCount = Constants.BATCH_MAX_COUNT;
+    private volatile int maxBytes = Constants.BATCH_MAX_BYTES;
+    private volatile long maxLatency = Constants.BATCH_MAX_LATENCY;
+
+    private TelemetryBatcher(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @param context The application context for the object.
+     * @return The TelemetryBatcher object for the application.
+     */
+    public static synchronized TelemetryBatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new TelemetryBatcher(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Add a sample to the batch for a topic. If batching is disabled, the sample is
+     * published immediately as a single {"d":{...}} message.
+     *
+     * @param topic  The topic the sample is to be published to.
+     * @param codec  The payload format of the topic.
+     * @param sample Writer containing the serialized data object of the sample. The
+     *               contents are copied, so the writer may be reused once this returns.
+     */
+    public void add(String topic, PayloadCodec codec, MessageWriter sample) {
+        Log.v(TAG, ".add() entered");
+        if (!enabled) {
+            HashMap<String, MessageWriter> envelopes = ENVELOPES.get();
+            MessageWriter envelope = envelopes.get(codec.getName());
+            if (envelope == null) {
+                envelope = codec.newWriter(256);
+                envelopes.put(codec.getName(), envelope);
+            }
+            envelope.reset().beginObject().name("d").rawValue(sample.getBuffer(), 0, sample.getLength()).endObject();
+            publish(topic, envelope);
+            return;
+        }
+
+        Batch batch = batches.get(topic);
+        if (batch == null) {
+            Batch created = new Batch(topic, codec);
+            batch = batches.putIfAbsent(topic, created);
+            if (batch == null) {
+                batch = created;
+            }
+        }
+        synchronized (batch) {
+            if (batch.count == 0) {
+                batch.open();
+                flushExecutor.schedule(new DeadlineTask(batch, batch.generation), maxLatency, TimeUnit.MILLISECONDS);
+            }
+            batch.writer.rawValue(sample.getBuffer(), 0, sample.getLength());
+            batch.count++;
+
+            // under backpressure, keep filling the batch up to its size limit or deadline
+            boolean full = batch.count >= maxCount
+                    && !MqttHandler.getInstance(context).isBackpressured(topic);
+            if (full || batch.writer.getLength() >= maxBytes) {
+                batch.flush();
+            }
+        }
+    }
+
+    /**
+     * Publish the pending batch for a topic immediately.
+     *
+     * @param topic The topic to flush.
+     */
+    public void flush(String topic) {
+        Batch batch = batches.get(topic);
+        if (batch != null) {
+            synchronized (batch) {
+                batch.flush();
+            }
+        }
+    }
+
+    /**
+     * Publish the pending batches for all topics immediately.
+     */
+    public void flushAll() {
+        for (Batch batch : batches.values()) {
+            synchronized (batch) {
+                batch.flush();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled True to batch samples, false to publish each sample as it is added.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            flushAll();
+        }
+    }
+
+    public void setMaxCount(int maxCount) {
+        this.maxCount = maxCount;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxLatency(long maxLatency) {
+        this.maxLatency = maxLatency;
+    }
+
+    private void publish(String topic, MessageWriter message) {
+        MqttHandler mqttHandler = MqttHandler.getInstance(context);
+        mqttHandler.publish(topic, message.getBuffer(), 0, message.getLength(), false, 0);
+    }
+
+    /**
+     * Samples accumulated for a single topic. Access is synchronized on the batch.
+     */
+    private class Batch {
+        final String topic;
+        final MessageWriter writer;
+        int count;
+        int generation;
+
+        Batch(String topic, PayloadCodec codec) {
+            this.topic = topic;
+            this.writer = codec.newWriter(Constants.BATCH_MAX_BYTES);
+        }
+
+        /**
+         * Start a new, empty batch.
+         */
+        void open() {
+            generation++;
+            writer.reset().beginObject().name("d").beginArray();
+        }
+
+        /**
+         * Publish the batch as an array valued message and empty it.
+         */
+        void flush() {
+            if (count > 0) {
+                writer.endArray().endObject();
+                publish(topic, writer);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Flushes a batch when its oldest sample reaches the maximum latency. The generation
+     * identifies the batch the task was scheduled for, so that a batch which was already
+     * flushed on count or size does not cause its successor to be flushed early.
+     */
+    private static class DeadlineTask implements Runnable {
+        private final Batch batch;
+        private final int generation;
+
+        DeadlineTask(Batch batch, int generation) {
+            this.batch = batch;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            synchronized (batch) {
+                if (batch.generation == generation) {
+                    batch.flush();
+                }
+            }
+        }
+    }
+}
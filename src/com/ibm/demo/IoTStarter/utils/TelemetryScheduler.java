@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the periodic producers of the application, such as the accel publisher, on a
+ * shared ScheduledThreadPoolExecutor.
+ *
+ * Each periodic task is scheduled against absolute deadlines, start + n * period, so that
+ * the time taken by a run or a late wake-up does not accumulate as drift. When a run ends
+ * after one or more deadlines have already passed, for example after the device slept,
+ * those ticks are skipped rather than run back to back. The lateness of every run is
+ * recorded as tick jitter.
+ *
+ * The executor is also available to other components for one-shot delays.
+ */
+public class TelemetryScheduler {
+    private final static String TAG = TelemetryScheduler.class.getName();
+
+    private static TelemetryScheduler instance;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+
+    private TelemetryScheduler() {
+        executor = new ScheduledThreadPoolExecutor(Constants.SCHEDULER_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TelemetryScheduler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return The TelemetryScheduler object for the application.
+     */
+    public static synchronized TelemetryScheduler getInstance() {
+        if (instance == null) {
+            instance = new TelemetryScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * @return The shared executor, for tasks that need a one-shot delay.
+     */
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Run a task periodically, starting one period from now. A task registered under a
+     * name that is already in use replaces the earlier task.
+     *
+     * @param name         The name of the producer, e.g. the event it publishes.
+     * @param task         The task to run. A run never overlaps the previous run of the task.
+     * @param periodMillis The period, in milliseconds.
+     * @return The registration, used to change the period or to cancel the task.
+     */
+    public Registration register(String name, Runnable task, long periodMillis) {
+        Log.d(TAG, ".register() - " + name + " every " + periodMillis + "ms");
+        Registration registration = new Registration(name, task, periodMillis);
+        Registration previous = registrations.put(name, registration);
+        if (previous != null) {
+            previous.cancel();
+        }
+        registration.start();
+        return registration;
+    }
+
+    /**
+     * @return The registered periodic tasks.
+     */
+    public Collection<Registration> getRegistrations() {
+        return registrations.values();
+    }
+
+    /**
+     * A periodic task and its timing statistics.
+     */
+    public class Registration {
+        private final String name;
+        private final Runnable task;
+        private final LatencyHistogram jitter = new LatencyHistogram();
+
+        // guarded by this
+        private long periodNanos;
+        private long startNanos;
+        private long tick;
+        private int generation;
+        private boolean running;
+        private boolean cancelled;
+        private long runCount;
+        private long skippedCount;
+
+        Registration(String name, Runnable task, long periodMillis) {
+            this.name = name;
+            this.task = task;
+            this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Change the period. The next run is one new period from now.
+         *
+         * @param periodMillis The period, in milliseconds.
+         */
+        public synchronized void setPeriod(long periodMillis) {
+            periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+            startNanos = System.nanoTime();
+            // a running task schedules its next run itself once it is done, after advancing the tick
+            if (running) {
+                tick = 0;
+            } else if (!cancelled) {
+                tick = 1;
+                scheduleNext(periodNanos);
+            }
+        }
+
+        public synchronized long getPeriod() {
+            return TimeUnit.NANOSECONDS.toMillis(periodNanos);
+        }
+
+        /**
+         * Stop running the task. A run in progress is completed.
+         */
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                generation++;
+            }
+            registrations.remove(name, this);
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return The lateness of runs with respect to their deadlines, in microseconds.
+         */
+        public LatencyHistogram getJitter() {
+            return jitter;
+        }
+
+        public synchronized long getRunCount() {
+            return runCount;
+        }
+
+        /**
+         * @return The number of deadlines that were skipped because they had passed.
+         */
+        public synchronized long getSkippedCount() {
+            return skippedCount;
+        }
+
+        private synchronized void start() {
+            startNanos = System.nanoTime();
+            tick = 1;
+            scheduleNext(periodNanos);
+        }
+
+        /**
+         * Schedule the next run. Runs scheduled earlier are invalidated.
+         */
+        private void scheduleNext(long delayNanos) {
+            executor.schedule(new Tick(++generation), Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        }
+
+        private void fire(int tickGeneration) {
+            synchronized (this) {
+                if (cancelled || tickGeneration != generation) {
+                    return;
+                }
+                running = true;
+                long lateness = System.nanoTime() - (startNanos + tick * periodNanos);
+                jitter.record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, lateness)));
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // keep the schedule alive
+                Log.e(TAG, ".fire() - " + name + " failed", e);
+            }
+
+            synchronized (this) {
+                running = false;
+                runCount++;
+                if (cancelled) {
+                    return;
+                }
+                tick++;
+                long now = System.nanoTime();
+                long deadline = startNanos + tick * periodNanos;
+                if (deadline <= now) {
+                    long missed = (now - deadline) / periodNanos + 1;
+                    skippedCount += missed;
+                    tick += missed;
+                    deadline = startNanos + tick * periodNanos;
+                }
+                scheduleNext(deadline - now);
+            }
+        }
+
+        /**
+         * One scheduled run of the task, ignored if the task was rescheduled or cancelled since.
+         */
+        private class Tick implements Runnable {
+            private final int tickGeneration;
+
+            Tick(int tickGeneration) {
+                this.tickGeneration = tickGeneration;
+            }
+
+            @Override
+            public void run() {
+                fire(tickGeneration);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Token bucket rate limiter. Tokens are added continuously at a fixed rate, up to the
+ * burst size, and each permitted operation takes one token. A rate of zero or less
+ * disables the limit.
+ */
+public class TokenBucket {
+
+    private final static double NANOS_PER_SECOND = 1e9;
+
+    private double tokensPerNano;
+    private double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond The sustained rate, in tokens per second.
+     * @param burst         The maximum number of tokens that can be saved up.
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        configure(ratePerSecond, burst);
+        tokens = this.burst;
+    }
+
+    /**
+     * Change the rate and burst size. Tokens already saved up are kept, up to the new burst size.
+     *
+     * @param ratePerSecond The sustained rate, in tokens per second.
+     * @param burst         The maximum number of tokens that can be saved up.
+     */
+    public synchronized void configure(double ratePerSecond, int burst) {
+        refill();
+        this.tokensPerNano = ratePerSecond / NANOS_PER_SECOND;
+        this.burst = Math.max(1, burst);
+        tokens = Math.min(tokens, this.burst);
+    }
+
+    /**
+     * @return True if a token was taken, false if none is available.
+     */
+    public synchronized boolean tryAcquire() {
+        if (tokensPerNano <= 0) {
+            return true;
+        }
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return a token that was taken but not used.
+     */
+    public synchronized void refund() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    /**
+     * @return The time until a token is available, in nanoseconds, or 0 if one is available now.
+     */
+    public synchronized long nanosUntilAvailable() {
+        if (tokensPerNano <= 0) {
+            return 0;
+        }
+        refill();
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * @return The number of tokens currently available.
+     */
+    public synchronized double getAvailable() {
+        if (tokensPerNano <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (tokensPerNano > 0) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        }
+        lastRefill = now;
+    }
+}
@@ -15,25 +15,80 @@
  *******************************************************************************/
 package com.ibm.demo.IoTStarter.utils;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Build topic strings used by the application.
  */
 public class TopicFactory {
     private final static String TAG = TopicFactory.class.getName();
 
+    // Event topics are requested for every published sample, so they are built only once per format
+    private final static ConcurrentHashMap<String, ConcurrentHashMap<String, String>> eventTopics =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+
     /**
      * @param event The event to create a topic string for.
-     * @return The event topic for the specified event string.
+     * @return The event topic for the specified event string, in the format selected for the event.
      */
     public static String getEventTopic(String event) {
-        return Constants.EVENT_TOPIC + event + Constants.FORMAT_TOPIC;
+        return getEventTopic(event, PayloadCodecs.getEventCodec(event));
+    }
+
+    /**
+     * @param event The event to create a topic string for.
+     * @param codec The payload format of the event.
+     * @return The event topic for the specified event string and format.
+     */
+    public static String getEventTopic(String event, PayloadCodec codec) {
+        ConcurrentHashMap<String, String> topics = eventTopics.get(codec.getName());
+        if (topics == null) {
+            topics = new ConcurrentHashMap<String, String>();
+            ConcurrentHashMap<String, String> existing = eventTopics.putIfAbsent(codec.getName(), topics);
+            if (existing != null) {
+                topics = existing;
+            }
+        }
+        String topic = topics.get(event);
+        if (topic == null) {
+            topic = Constants.EVENT_TOPIC + event + Constants.FORMAT_TOPIC + codec.getName();
+            topics.put(event, topic);
+        }
+        return topic;
     }
 
     /**
      * @param command The command to create a topic string for.
-     * @return The command topic for the specified command string.
+     * @return The JSON command topic for the specified command string.
      */
     public static String getCommandTopic(String command) {
-        return Constants.COMMAND_TOPIC + command + Constants.FORMAT_TOPIC;
+        return getCommandTopic(command, Constants.FORMAT_JSON);
+    }
+
+    /**
+     * @param command The command to create a topic string for.
+     * @param format The payload format of the command, or + for any format.
+     * @return The command topic for the specified command string and format.
+     */
+    public static String getCommandTopic(String command, String format) {
+        return Constants.COMMAND_TOPIC + command + Constants.FORMAT_TOPIC + format;
+    }
+
+    /**
+     * @param topic An event or command topic, e.g. iot-2/evt/accel/fmt/json
+     * @return The name of the event or command, e.g. accel
+     */
+    public static String getName(String topic) {
+        int start = topic.indexOf('/', topic.indexOf('/') + 1) + 1;
+        int end = topic.indexOf('/', start);
+        return topic.substring(start, end < 0 ? topic.length() : end);
+    }
+
+    /**
+     * @param topic An event or command topic.
+     * @return The payload format of the topic, i.e. its last segment.
+     */
+    public static String getFormat(String topic) {
+        return topic.substring(topic.lastIndexOf('/') + 1);
     }
 }
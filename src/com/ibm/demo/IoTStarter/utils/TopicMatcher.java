@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Matches topics against a set of MQTT topic filters, resolving each topic to the value
+ * registered for the filter in a single pass over its segments.
+ *
+ * Filters are compiled into a trie with one level per topic segment. Literal segments are
+ * found through a hash table on each level, computed directly on the topic string, so the
+ * cost of matching does not grow with the number of registered filters and no substrings
+ * are created. Filters may contain the single level wildcard + and the multi level wildcard
+ * # as the last segment. A literal segment takes precedence over +, which takes precedence
+ * over #.
+ *
+ * Registration is synchronized and replaces trie nodes copy-on-write, so matching may run
+ * concurrently without locking.
+ *
+ * @param <T> The type of value registered for a filter, e.g. a message handler.
+ */
+public class TopicMatcher<T> {
+    private final static String TAG = TopicMatcher.class.getName();
+
+    private final static String SINGLE_LEVEL = "+";
+    private final static String MULTI_LEVEL = "#";
+
+    private final Node<T> root = new Node<T>(null);
+
+    /**
+     * Register a value for a topic filter, replacing any value already registered for it.
+     *
+     * @param filter The topic filter, e.g. iot-2/cmd/color/fmt/+
+     * @param value  The value to return for topics matching the filter.
+     */
+    public synchronized void register(String filter, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("A value is required");
+        }
+        Node<T> node = root;
+        int start = 0;
+        while (true) {
+            int end = filter.indexOf('/', start);
+            if (end < 0) {
+                end = filter.length();
+            }
+            String segment = filter.substring(start, end);
+            if (segment.equals(MULTI_LEVEL)) {
+                if (end != filter.length()) {
+                    throw new IllegalArgumentException("# must be the last segment of " + filter);
+                }
+                if (node.multiLevel == null) {
+                    node.multiLevel = new Node<T>(segment);
+                }
+                node = node.multiLevel;
+            } else if (segment.equals(SINGLE_LEVEL)) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = new Node<T>(segment);
+                }
+                node = node.singleLevel;
+            } else {
+                Node<T> child = node.get(segment, 0, segment.length(), segment.hashCode());
+                if (child == null) {
+                    child = new Node<T>(segment);
+                    node.add(child);
+                }
+                node = child;
+            }
+            if (end == filter.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        node.value = value;
+    }
+
+    /**
+     * @param topic The topic of a received message.
+     * @return The value registered for the most specific filter matching the topic, or
+     * null if no filter matches.
+     */
+    public T match(String topic) {
+        // topics starting with $ are reserved and not matched by leading wildcards
+        boolean reserved = topic.length() > 0 && topic.charAt(0) == '$';
+        return match(root, topic, 0, reserved);
+    }
+
+    private T match(Node<T> node, String topic, int start, boolean reserved) {
+        int end = topic.indexOf('/', start);
+        boolean last = end < 0;
+        if (last) {
+            end = topic.length();
+        }
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + topic.charAt(i);
+        }
+        Node<T> child = node.get(topic, start, end - start, hash);
+        if (child != null) {
+            T value = last ? child.terminalValue() : match(child, topic, end + 1, false);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (reserved) {
+            return null;
+        }
+        Node<T> singleLevel = node.singleLevel;
+        if (singleLevel != null) {
+            T value = last ? singleLevel.terminalValue() : match(singleLevel, topic, end + 1, false);
+            if (value != null) {
+                return value;
+            }
+        }
+        Node<T> multiLevel = node.multiLevel;
+        return multiLevel != null ? multiLevel.value : null;
+    }
+
+    /**
+     * A level of the trie. Literal children are kept in an open addressing hash table that
+     * is replaced, never modified, when a child is added.
+     */
+    private static class Node<T> {
+        final String segment;
+        final int hash;
+        volatile T value;
+        volatile Node<T> singleLevel;
+        volatile Node<T> multiLevel;
+        volatile Node<T>[] children;
+        int childCount;
+
+        Node(String segment) {
+            this.segment = segment;
+            this.hash = segment != null ? segment.hashCode() : 0;
+        }
+
+        /**
+         * @return The value for a topic ending at this node. A filter ending in # also
+         * matches its parent level, e.g. a/# matches a.
+         */
+        T terminalValue() {
+            T result = value;
+            if (result == null && multiLevel != null) {
+                result = multiLevel.value;
+            }
+            return result;
+        }
+
+        Node<T> get(String topic, int start, int length, int hash) {
+            Node<T>[] table = children;
+            if (table == null) {
+                return null;
+            }
+            int mask = table.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                Node<T> child = table[i];
+                if (child == null) {
+                    return null;
+                }
+                if (child.hash == hash && child.segment.length() == length
+                        && topic.regionMatches(start, child.segment, 0, length)) {
+                    return child;
+                }
+            }
+        }
+
+        void add(Node<T> child) {
+            Node<T>[] table = children;
+            // keep the table at most half full
+            int capacity = table == null ? 8 : table.length;
+            while (capacity < (childCount + 1) * 2) {
+                capacity *= 2;
+            }
+            // generic arrays cannot be created, the raw array only ever holds Node<T>
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Node<T>[] grown = new Node[capacity];
+            if (table != null) {
+                for (Node<T> existing : table) {
+                    if (existing != null) {
+                        insert(grown, existing);
+                    }
+                }
+            }
+            insert(grown, child);
+            childCount++;
+            children = grown;
+        }
+
+        private static <T> void insert(Node<T>[] table, Node<T> node) {
+            int mask = table.length - 1;
+            int i = node.hash & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = node;
+        }
+    }
+}
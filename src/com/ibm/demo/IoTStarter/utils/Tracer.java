@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the time spent in each stage of the outbound and inbound message pipelines, and
+ * dumps it in the Chrome trace event format, which chrome://tracing and Perfetto show as a
+ * timeline of nested spans per thread.
+ *
+ * A span is recorded as its stage, start, duration, thread and one numeric argument into a
+ * preallocated ring buffer, so tracing does not allocate once a thread has recorded its first
+ * event, and the ring keeps the most recent events. Each slot carries the sequence number of
+ * its event, which lets dump() skip slots being overwritten while it reads them.
+ *
+ * Tracing is off by default. When off, begin() returns 0 and end() returns at once.
+ */
+public class Tracer {
+
+    // Outbound stages
+    public final static int SENSOR = 0;
+    public final static int SERIALIZE = 1;
+    public final static int PUBLISH = 2;
+    public final static int SEND = 3;
+    public final static int ACK = 4;
+    // Inbound stages
+    public final static int ARRIVED = 5;
+    public final static int DISPATCH = 6;
+    public final static int PARSE = 7;
+    public final static int HANDLE = 8;
+    public final static int BROADCAST = 9;
+
+    private final static String[] NAMES = {"sensor", "serialize", "publish", "send", "ack",
+            "messageArrived", "dispatch", "parse", "handle", "broadcast"};
+    private final static String[] ARGUMENTS = {"type", "bytes", "bytes", "qos", "qos",
+            "bytes", "bytes", "bytes", "bytes", "bytes"};
+    private final static int FIRST_INBOUND = ARRIVED;
+
+    // longs per slot: stage, start, duration, thread, argument
+    private final static int FIELDS = 5;
+
+    private static Tracer instance;
+
+    private volatile boolean enabled = Constants.TRACE_ENABLED;
+    private final int mask;
+    private final AtomicLongArray events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong next = new AtomicLong();
+    private final Map<Long, String> threadNames = new ConcurrentHashMap<Long, String>();
+    private final ThreadLocal<Boolean> registered = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            Thread thread = Thread.currentThread();
+            threadNames.put(thread.getId(), thread.getName());
+            return Boolean.TRUE;
+        }
+    };
+
+    /**
+     * @param capacity The number of events kept, rounded up to a power of two.
+     */
+    public Tracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        events = new AtomicLongArray(size * FIELDS);
+        sequences = new AtomicLongArray(size);
+    }
+
+    /**
+     * @return The Tracer object for the application.
+     */
+    public static synchronized Tracer getInstance() {
+        if (instance == null) {
+            instance = new Tracer(Constants.TRACE_CAPACITY);
+        }
+        return instance;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The start time of a span, or 0 if tracing is off.
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a span that started at begin() and ends now.
+     *
+     * @param stage The stage of the span.
+     * @param start The value returned by begin(), or 0 to record nothing.
+     */
+    public void end(int stage, long start) {
+        end(stage, start, 0);
+    }
+
+    /**
+     * Record a span that started at begin(), or at another System.nanoTime(), and ends now.
+     *
+     * @param stage    The stage of the span.
+     * @param start    The start of the span, or 0 to record nothing.
+     * @param argument A value shown with the span, e.g. the size of a message.
+     */
+    public void end(int stage, long start, long argument) {
+        if (start == 0 || !enabled) {
+            return;
+        }
+        long duration = System.nanoTime() - start;
+        registered.get();
+
+        long sequence = next.getAndIncrement();
+        int slot = (int) sequence & mask;
+        int base = slot * FIELDS;
+        sequences.set(slot, 0);
+        events.set(base, stage);
+        events.set(base + 1, start);
+        events.set(base + 2, duration);
+        events.set(base + 3, Thread.currentThread().getId());
+        events.set(base + 4, argument);
+        sequences.set(slot, sequence + 1);
+    }
+
+    /**
+     * @return The number of events recorded since the tracer was created or cleared,
+     * including those overwritten.
+     */
+    public long getCount() {
+        return next.get();
+    }
+
+    /**
+     * Discard all recorded events.
+     */
+    public void clear() {
+        for (int i = 0; i < sequences.length(); i++) {
+            sequences.set(i, 0);
+        }
+        next.set(0);
+    }
+
+    /**
+     * Write the recorded events to a file in the Chrome trace event format.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void dump(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the recorded events in the Chrome trace event format. Recording may continue
+     * while the events are written.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void dump(OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(64 * 1024);
+        writer.beginObject().name("traceEvents").beginArray();
+        for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+            writer.beginObject()
+                    .name("name").value("thread_name")
+                    .name("ph").value("M")
+                    .name("pid").value(0L)
+                    .name("tid").value(thread.getKey().longValue())
+                    .name("args").beginObject().name("name").value(thread.getValue()).endObject()
+                    .endObject();
+        }
+        for (int slot = 0; slot <= mask; slot++) {
+            long sequence = sequences.get(slot);
+            if (sequence == 0) {
+                continue;
+            }
+            int base = slot * FIELDS;
+            int stage = (int) events.get(base);
+            long start = events.get(base + 1);
+            long duration = events.get(base + 2);
+            long thread = events.get(base + 3);
+            long argument = events.get(base + 4);
+            if (sequences.get(slot) != sequence) {
+                // overwritten while it was read
+                continue;
+            }
+            writer.beginObject()
+                    .name("name").value(NAMES[stage])
+                    .name("cat").value(stage < FIRST_INBOUND ? "outbound" : "inbound")
+                    .name("ph").value("X")
+                    .name("ts").value(start / 1000.0)
+                    .name("dur").value(duration / 1000.0)
+                    .name("pid").value(0L)
+                    .name("tid").value(thread)
+                    .name("args").beginObject().name(ARGUMENTS[stage]).value(argument).endObject()
+                    .endObject();
+        }
+        writer.endArray().name("displayTimeUnit").value("ms").endObject();
+        out.write(writer.getBuffer(), 0, writer.getLength());
+        out.flush();
+    }
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Extracts vibration features from a window of accelerometer samples: the dominant
+ * frequencies of the spectrum, the rms acceleration in frequency bands, and the rms and
+ * crest factor of the signal. The signal is the magnitude of the acceleration with its
+ * mean, mostly gravity, removed.
+ *
+ * The spectrum is the average of the power spectra of consecutive segments of the window
+ * (Welch's method). The segment size is the largest power of two that fits in the window,
+ * up to a maximum. All buffers are preallocated; an instance is not thread safe.
+ */
+public class VibrationAnalyzer {
+
+    private final static int MIN_FFT_SIZE = 16;
+
+    private final int maxSize;
+    private final Fft[] transforms;
+    private final double[] signal;
+    private final double[] segmentPower;
+    private final double[] power;
+    private final double[] bandEdges;
+    private final double[] bandRms;
+    private final double[] peakFrequency;
+    private final double[] peakAmplitude;
+    private final double[] peakPower;
+    private int peakCount;
+
+    private double sampleRate;
+    private int fftSize;
+    private int segmentCount;
+    private double rms;
+    private double crestFactor;
+
+    /**
+     * @param capacity  The maximum number of samples in a window.
+     * @param maxSize   The maximum segment size, a power of two.
+     * @param peaks     The number of dominant frequencies to find.
+     * @param bandEdges The upper edges of the frequency bands in Hz, in increasing order.
+     *                  The last band covers everything above the last edge.
+     */
+    public VibrationAnalyzer(int capacity, int maxSize, int peaks, double[] bandEdges) {
+        this.maxSize = maxSize;
+        transforms = new Fft[Integer.numberOfTrailingZeros(maxSize) + 1];
+        signal = new double[capacity];
+        segmentPower = new double[maxSize / 2 + 1];
+        power = new double[maxSize / 2 + 1];
+        this.bandEdges = bandEdges.clone();
+        bandRms = new double[bandEdges.length + 1];
+        peakFrequency = new double[peaks];
+        peakAmplitude = new double[peaks];
+        peakPower = new double[peaks];
+    }
+
+    /**
+     * Analyze the samples of a window.
+     *
+     * @param window The x, y, z samples, with timestamps in nanoseconds.
+     * @return False if the window holds too few samples to analyze.
+     */
+    public boolean analyze(SampleWindow window) {
+        int count = Math.min(window.getCount(), signal.length);
+        long duration = window.getDuration();
+        if (count < MIN_FFT_SIZE || duration <= 0) {
+            return false;
+        }
+        sampleRate = (count - 1) * 1e9 / duration;
+
+        double mean = 0;
+        for (int i = 0; i < count; i++) {
+            double x = window.getValue(i, 0);
+            double y = window.getValue(i, 1);
+            double z = window.getValue(i, 2);
+            signal[i] = Math.sqrt(x * x + y * y + z * z);
+            mean += signal[i];
+        }
+        mean /= count;
+        double sumSquares = 0;
+        double peak = 0;
+        for (int i = 0; i < count; i++) {
+            signal[i] -= mean;
+            sumSquares += signal[i] * signal[i];
+            peak = Math.max(peak, Math.abs(signal[i]));
+        }
+        rms = Math.sqrt(sumSquares / count);
+        crestFactor = rms > 0 ? peak / rms : 0;
+
+        fftSize = Math.min(maxSize, Integer.highestOneBit(count));
+        Fft fft = getTransform(fftSize);
+        int bins = fftSize / 2 + 1;
+        segmentCount = count / fftSize;
+        // the most recent samples are used when the window is not a whole number of segments
+        int first = count - segmentCount * fftSize;
+        for (int k = 0; k < bins; k++) {
+            power[k] = 0;
+        }
+        for (int s = 0; s < segmentCount; s++) {
+            fft.powerSpectrum(signal, first + s * fftSize, segmentPower);
+            for (int k = 0; k < bins; k++) {
+                power[k] += segmentPower[k];
+            }
+        }
+        for (int k = 0; k < bins; k++) {
+            power[k] /= segmentCount;
+        }
+
+        findPeaks(fft, bins);
+        computeBands(fft, bins);
+        return true;
+    }
+
+    private Fft getTransform(int size) {
+        int index = Integer.numberOfTrailingZeros(size);
+        if (transforms[index] == null) {
+            transforms[index] = new Fft(size);
+        }
+        return transforms[index];
+    }
+
+    /**
+     * Find the highest local maxima of the spectrum, refining their frequency by fitting a
+     * parabola through the bin and its neighbours.
+     */
+    private void findPeaks(Fft fft, int bins) {
+        peakCount = 0;
+        double binWidth = sampleRate / fftSize;
+        for (int k = 1; k < bins - 1; k++) {
+            double p = power[k];
+            if (p <= power[k - 1] || p < power[k + 1] || p == 0) {
+                continue;
+            }
+            int slot = peakCount < peakPower.length ? peakCount++ : peakCount;
+            while (slot > 0 && peakPower[slot - 1] < p) {
+                if (slot < peakPower.length) {
+                    peakPower[slot] = peakPower[slot - 1];
+                    peakFrequency[slot] = peakFrequency[slot - 1];
+                    peakAmplitude[slot] = peakAmplitude[slot - 1];
+                }
+                slot--;
+            }
+            if (slot >= peakPower.length) {
+                continue;
+            }
+            double curvature = power[k - 1] - 2 * p + power[k + 1];
+            double offset = curvature != 0 ? 0.5 * (power[k - 1] - power[k + 1]) / curvature : 0;
+            peakPower[slot] = p;
+            peakFrequency[slot] = (k + offset) * binWidth;
+            peakAmplitude[slot] = 2 * Math.sqrt(p) / fft.getWindowSum();
+        }
+    }
+
+    /**
+     * Compute the rms acceleration of each band from the power of its bins (Parseval).
+     */
+    private void computeBands(Fft fft, int bins) {
+        double binWidth = sampleRate / fftSize;
+        double scale = 2 / (fftSize * fft.getWindowSquareSum());
+        int band = 0;
+        double sum = 0;
+        for (int i = 0; i < bandRms.length; i++) {
+            bandRms[i] = 0;
+        }
+        for (int k = 1; k < bins; k++) {
+            while (band < bandEdges.length && k * binWidth >= bandEdges[band]) {
+                bandRms[band++] = Math.sqrt(sum * scale);
+                sum = 0;
+            }
+            sum += power[k];
+        }
+        bandRms[band] = Math.sqrt(sum * scale);
+    }
+
+    /**
+     * @return The estimated sampling rate of the last window, in Hz.
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return The rms of the signal, in m/s^2.
+     */
+    public double getRms() {
+        return rms;
+    }
+
+    /**
+     * @return The ratio of the peak value to the rms of the signal.
+     */
+    public double getCrestFactor() {
+        return crestFactor;
+    }
+
+    /**
+     * @return The number of dominant frequencies found, at most the number requested.
+     */
+    public int getPeakCount() {
+        return peakCount;
+    }
+
+    /**
+     * @param index The index of the peak, 0 being the strongest.
+     * @return The frequency of the peak, in Hz.
+     */
+    public double getPeakFrequency(int index) {
+        return peakFrequency[index];
+    }
+
+    /**
+     * @param index The index of the peak, 0 being the strongest.
+     * @return The amplitude of the peak, in m/s^2.
+     */
+    public double getPeakAmplitude(int index) {
+        return peakAmplitude[index];
+    }
+
+    public int getBandCount() {
+        return bandRms.length;
+    }
+
+    /**
+     * @param index The index of the band, 0 being the lowest.
+     * @return The rms acceleration in the band, in m/s^2.
+     */
+    public double getBandRms(int index) {
+        return bandRms[index];
+    }
+}
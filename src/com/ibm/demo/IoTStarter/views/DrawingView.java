@@ -24,7 +24,10 @@ import android.view.MotionEvent;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.utils.Constants;
 import com.ibm.demo.IoTStarter.utils.MessageFactory;
-import com.ibm.demo.IoTStarter.utils.MqttHandler;
+import com.ibm.demo.IoTStarter.utils.MessageWriter;
+import com.ibm.demo.IoTStarter.utils.PayloadCodec;
+import com.ibm.demo.IoTStarter.utils.PayloadCodecs;
+import com.ibm.demo.IoTStarter.utils.TelemetryBatcher;
 import com.ibm.demo.IoTStarter.utils.TopicFactory;
 
 /**
@@ -191,10 +194,15 @@ public class DrawingView extends View {
 
         IoTStarterApplication app = (IoTStarterApplication) context.getApplicationContext();
 
-        String messageData = MessageFactory.getTouchMessage(relativeX, relativeY, relativeDX, relativeDY, ended);
+        PayloadCodec codec = PayloadCodecs.getEventCodec(Constants.TOUCH_EVENT);
+        MessageWriter writer = MessageFactory.writeTouchData(codec.getWriter(), relativeX, relativeY, relativeDX, relativeDY, ended);
 
-        Log.v(TAG, "Publishing touch message: " + messageData);
-        MqttHandler mqttHandler = MqttHandler.getInstance(context);
-        mqttHandler.publish(TopicFactory.getEventTopic(Constants.TOUCH_EVENT), messageData, false, 0);
+        String topic = TopicFactory.getEventTopic(Constants.TOUCH_EVENT, codec);
+        TelemetryBatcher batcher = TelemetryBatcher.getInstance(context);
+        batcher.add(topic, codec, writer);
+        if (ended) {
+            // publish the whole gesture as soon as the touch is released
+            batcher.flush(topic);
+        }
     }
 }
\ No newline at end of file